@@ -0,0 +1,113 @@
+package com.brettonw.bag.benchmark;
+
+import com.brettonw.bag.BagArray;
+import com.brettonw.bag.BagObject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * The inputs for the benchmarks: the sample files in the data directory (the benchmarks run from
+ * the project root, like the tests), and synthetic documents that stress one dimension each.
+ */
+final class Documents {
+    static final String DATA_DIRECTORY = "data";
+
+    // the names the benchmarks use as parameters for the synthetic documents
+    static final String WIDE = "wide";
+    static final String DEEP = "deep";
+    static final String LONG = "long";
+
+    static final int WIDE_WIDTH = 4096;
+    static final int DEEP_DEPTH = 256;
+    static final int LONG_LENGTH = 20000;
+
+    static {
+        // the format readers and writers are registered when Bag is initialized, which hasn't
+        // necessarily happened yet when a benchmark starts by reading a file
+        new BagObject ();
+    }
+
+    private Documents () {}
+
+    static byte[] bytes (String name) {
+        try {
+            return Files.readAllBytes (Paths.get (DATA_DIRECTORY, name));
+        } catch (IOException exception) {
+            throw new UncheckedIOException (exception);
+        }
+    }
+
+    /**
+     * @param name a file in the data directory, or one of the synthetic document names
+     * @return the JSON text of the document
+     */
+    static String json (String name) {
+        switch (name) {
+            case WIDE: return wide (WIDE_WIDTH).toString ();
+            case DEEP: return deep (DEEP_DEPTH).toString ();
+            case LONG: return longArray (LONG_LENGTH).toString ();
+            default: return new String (bytes (name), StandardCharsets.UTF_8);
+        }
+    }
+
+    static String key (int i) {
+        return String.format ("key-%05d", i);
+    }
+
+    /**
+     * @param width the number of keys
+     * @return a single object with many keys
+     */
+    static BagObject wide (int width) {
+        BagObject bagObject = new BagObject ();
+        for (int i = 0; i < width; ++i) {
+            bagObject.put (key (i), "value " + i);
+        }
+        return bagObject;
+    }
+
+    /**
+     * @param depth the number of levels
+     * @return a chain of objects, each with a couple of values and the next level under "next"
+     */
+    static BagObject deep (int depth) {
+        BagObject bagObject = new BagObject ().put ("level", depth).put ("name", "leaf");
+        for (int i = depth - 1; i >= 0; --i) {
+            bagObject = new BagObject ().put ("level", i).put ("name", "level " + i).put ("next", bagObject);
+        }
+        return bagObject;
+    }
+
+    /**
+     * @param depth how many levels down the path reaches
+     * @return a path into a deep document, like "next/next/name"
+     */
+    static String deepPath (int depth) {
+        StringBuilder stringBuilder = new StringBuilder ();
+        for (int i = 0; i < depth; ++i) {
+            stringBuilder.append ("next/");
+        }
+        return stringBuilder.append ("name").toString ();
+    }
+
+    /**
+     * @param length the number of records
+     * @return an array of small, similar records
+     */
+    static BagArray longArray (int length) {
+        BagArray bagArray = new BagArray ();
+        for (int i = 0; i < length; ++i) {
+            bagArray.add (new BagObject ()
+                    .put ("id", i)
+                    .put ("name", "record " + i)
+                    .put ("score", (i * 7919) % 1000 / 10.0)
+                    .put ("active", (i % 3) == 0)
+                    .put ("tags", new BagArray ().add ("a" + (i % 5)).add ("b" + (i % 7))));
+        }
+        return bagArray;
+    }
+}
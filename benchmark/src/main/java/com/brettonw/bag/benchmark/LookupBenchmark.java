@@ -0,0 +1,78 @@
+package com.brettonw.bag.benchmark;
+
+import com.brettonw.bag.BagObject;
+import com.brettonw.bag.KeyPath;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storing and retrieving values in a BagObject, by simple key and by path.
+ */
+@State (Scope.Thread)
+@BenchmarkMode ({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class LookupBenchmark {
+    private static final int PATH_DEPTH = 16;
+
+    @Param ({ "8", "64", "1024" })
+    public int width;
+
+    private String[] keys;
+    private BagObject wide;
+    private BagObject deep;
+    private String path;
+    private KeyPath keyPath;
+    private int next;
+
+    @Setup
+    public void setup () {
+        keys = new String[width];
+        for (int i = 0; i < width; ++i) {
+            keys[i] = Documents.key (i);
+        }
+        wide = Documents.wide (width);
+        deep = Documents.deep (PATH_DEPTH);
+        path = Documents.deepPath (PATH_DEPTH);
+        keyPath = new KeyPath (path);
+        next = 0;
+    }
+
+    // cycle through the keys so every lookup isn't the same one
+    private String nextKey () {
+        next = (next + 1) % width;
+        return keys[next];
+    }
+
+    @Benchmark
+    public Object getObject () {
+        return wide.getObject (nextKey ());
+    }
+
+    @Benchmark
+    public BagObject putReplace () {
+        return wide.put (nextKey (), "replaced");
+    }
+
+    @Benchmark
+    public BagObject buildObject () {
+        BagObject bagObject = new BagObject ();
+        for (String key : keys) {
+            bagObject.put (key, key);
+        }
+        return bagObject;
+    }
+
+    @Benchmark
+    public Object getPath () {
+        return deep.getObject (path);
+    }
+
+    @Benchmark
+    public Object getKeyPath () {
+        return deep.getObject (keyPath);
+    }
+}
@@ -0,0 +1,75 @@
+package com.brettonw.bag.benchmark;
+
+import com.brettonw.bag.Bag;
+import com.brettonw.bag.BagArray;
+import com.brettonw.bag.BagArrayFrom;
+import com.brettonw.bag.BagObjectFrom;
+import com.brettonw.bag.entry.HandlerArrayFromDelimited;
+import com.brettonw.bag.entry.HandlerArrayFromFixed;
+import com.brettonw.bag.entry.HandlerCollector;
+import com.brettonw.bag.entry.HandlerRoller;
+import com.brettonw.bag.formats.FormatReader;
+import com.brettonw.bag.formats.FormatReaderTable;
+import com.brettonw.bag.formats.MimeType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading documents, from a String and from a stream of bytes.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode ({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (1)
+public class ParseBenchmark {
+    private static final String TLE_FORMAT = "benchmark/3le";
+
+    @Param ({ "JohnF.json", "UCS_Satellite_Database_2-1-14.json", Documents.WIDE, Documents.DEEP, Documents.LONG })
+    public String document;
+
+    private String json;
+    private byte[] bytes;
+    private boolean isArray;
+    private String tle;
+
+    @Setup
+    public void setup () {
+        json = Documents.json (document);
+        bytes = json.getBytes (StandardCharsets.UTF_8);
+        isArray = json.trim ().startsWith ("[");
+        tle = new String (Documents.bytes ("3le.txt"), StandardCharsets.UTF_8);
+
+        // the same three line element set layout the table reader tests use
+        FormatReader.registerFormatReader (TLE_FORMAT, false, (input) ->
+                new FormatReaderTable (input,
+                        new HandlerCollector (3, new HandlerArrayFromDelimited ("\n", new HandlerRoller (
+                                new HandlerArrayFromFixed (HandlerArrayFromFixed.fieldsFromExemplar ("0 AAAAAAAAAAAAAAAAAAAAAAAA", ' ')),
+                                new HandlerArrayFromFixed (HandlerArrayFromFixed.fieldsFromExemplar ("1 NNNNNU yyNNNAAA yyNNNNNNNNNNNN NNNNNNNNNN NNNNNNNN NNNNNNNN N NNNNc", ' ')),
+                                new HandlerArrayFromFixed (HandlerArrayFromFixed.fieldsFromExemplar ("2 NNNNN NNNNNNNN NNNNNNNN NNNNNNN NNNNNNNN NNNNNNNN NNNNNNNNNNNnnnnnc", ' '))
+                        ))),
+                        BagArrayFrom.array ("0", "NAME",
+                                "1", "A", "C", "D", "E", "F", "G", "H", "I", "J", "K", "L", "M", "N",
+                                "2", "B", "O", "P", "Q", "R", "S", "T", "U", "V")));
+    }
+
+    @Benchmark
+    public Bag parseString () {
+        return isArray ? BagArrayFrom.string (json) : BagObjectFrom.string (json);
+    }
+
+    @Benchmark
+    public Bag parseStream () {
+        ByteArrayInputStream inputStream = new ByteArrayInputStream (bytes);
+        return isArray ? BagArrayFrom.inputStream (inputStream, MimeType.JSON) : BagObjectFrom.inputStream (inputStream, MimeType.JSON);
+    }
+
+    @Benchmark
+    public BagArray parseTable () {
+        return BagArrayFrom.string (tle, TLE_FORMAT);
+    }
+}
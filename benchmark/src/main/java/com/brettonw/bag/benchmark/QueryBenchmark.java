@@ -0,0 +1,85 @@
+package com.brettonw.bag.benchmark;
+
+import com.brettonw.bag.BagArray;
+import com.brettonw.bag.BagArrayFrom;
+import com.brettonw.bag.BagObject;
+import com.brettonw.bag.SortKey;
+import com.brettonw.bag.SortType;
+import com.brettonw.bag.expr.BooleanExpr;
+import com.brettonw.bag.expr.Exprs;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting and querying an array of records.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode ({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (1)
+public class QueryBenchmark {
+    private BagArray satellites;
+    private BagArray records;
+    private BooleanExpr leo;
+    private BooleanExpr active;
+    private SortKey score;
+
+    @Setup
+    public void setup () {
+        satellites = BagArrayFrom.string (Documents.json ("UCS_Satellite_Database_2-1-14.json"));
+        records = Documents.longArray (Documents.LONG_LENGTH);
+        leo = Exprs.equality ("Class of Orbit", "LEO");
+        active = Exprs.equality ("active", true);
+        score = new SortKey (new BagObject ()
+                .put (SortKey.KEY, "score")
+                .put (SortKey.TYPE, SortType.NUMERIC.name ()));
+    }
+
+    // sort works in place, so each sort starts from a copy that shares the elements with the
+    // original. the copy benchmarks are the baselines to subtract.
+    private static BagArray copy (BagArray bagArray) {
+        BagArray copy = new BagArray (bagArray.getCount ());
+        for (int i = 0, end = bagArray.getCount (); i < end; ++i) {
+            copy.add (bagArray.getObject (i));
+        }
+        return copy;
+    }
+
+    @Benchmark
+    public BagArray copySatellites () {
+        return copy (satellites);
+    }
+
+    @Benchmark
+    public BagArray copyRecords () {
+        return copy (records);
+    }
+
+    @Benchmark
+    public BagArray sortSatellites () {
+        return copy (satellites).sort (new SortKey ("Class of Orbit"), new SortKey ("Current Official Name of Satellite"));
+    }
+
+    @Benchmark
+    public BagArray sortAlphabetic () {
+        return copy (records).sort (new SortKey ("name"));
+    }
+
+    @Benchmark
+    public BagArray sortNumeric () {
+        return copy (records).sort (score);
+    }
+
+    @Benchmark
+    public BagArray querySatellites () {
+        return satellites.query (leo, null);
+    }
+
+    @Benchmark
+    public BagArray queryRecords () {
+        return records.query (active, null);
+    }
+}
@@ -0,0 +1,82 @@
+package com.brettonw.bag.benchmark;
+
+import com.brettonw.bag.BagObject;
+import com.brettonw.bag.Serializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing plain objects to and from a BagObject.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode ({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class SerializeBenchmark {
+    public enum Kind { SMALL, MEDIUM, LARGE }
+
+    public static class Point {
+        public double x;
+        public double y;
+
+        public Point () {}
+
+        public Point (double x, double y) {
+            this.x = x; this.y = y;
+        }
+    }
+
+    public static class Record {
+        public int id;
+        public String name;
+        public boolean active;
+        public Kind kind;
+        public Point location;
+        public int[] counts;
+        public List<String> tags;
+
+        public Record () {}
+
+        public Record (int id) {
+            this.id = id;
+            name = "record " + id;
+            active = (id % 2) == 0;
+            kind = Kind.values ()[id % 3];
+            location = new Point (id * 0.5, id * -0.25);
+            counts = new int[] { id, id + 1, id + 2, id + 3 };
+            tags = new ArrayList<> ();
+            tags.add ("first");
+            tags.add ("second");
+        }
+    }
+
+    @Param ({ "1", "100" })
+    public int size;
+
+    private Record[] records;
+    private BagObject bagObject;
+
+    @Setup
+    public void setup () {
+        records = new Record[size];
+        for (int i = 0; i < size; ++i) {
+            records[i] = new Record (i);
+        }
+        bagObject = Serializer.toBagObject (records);
+    }
+
+    @Benchmark
+    public BagObject toBagObject () {
+        return Serializer.toBagObject (records);
+    }
+
+    @Benchmark
+    public Record[] fromBagObject () {
+        return Serializer.fromBagObject (bagObject);
+    }
+}
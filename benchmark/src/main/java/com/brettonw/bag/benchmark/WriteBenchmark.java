@@ -0,0 +1,51 @@
+package com.brettonw.bag.benchmark;
+
+import com.brettonw.bag.Bag;
+import com.brettonw.bag.BagArrayFrom;
+import com.brettonw.bag.BagObjectFrom;
+import com.brettonw.bag.formats.MimeType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing documents as JSON, to a String and to a stream.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode ({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (1)
+public class WriteBenchmark {
+    @Param ({ "JohnF.json", "UCS_Satellite_Database_2-1-14.json", Documents.WIDE, Documents.DEEP, Documents.LONG })
+    public String document;
+
+    private Bag bag;
+
+    // discards everything, so only the cost of producing the output is measured
+    private final OutputStream nullOutputStream = new OutputStream () {
+        @Override
+        public void write (int b) {}
+
+        @Override
+        public void write (byte[] b, int off, int len) {}
+    };
+
+    @Setup
+    public void setup () {
+        String json = Documents.json (document);
+        bag = json.trim ().startsWith ("[") ? BagArrayFrom.string (json) : BagObjectFrom.string (json);
+    }
+
+    @Benchmark
+    public String writeString () {
+        return bag.toString (MimeType.JSON);
+    }
+
+    @Benchmark
+    public boolean writeStream () {
+        return bag.write (nullOutputStream, MimeType.JSON);
+    }
+}
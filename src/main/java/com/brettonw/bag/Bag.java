@@ -8,12 +8,78 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.atteo.classindex.ClassIndex;
 
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 abstract public class Bag {
     private static final Logger log = LogManager.getLogger (Bag.class);
 
+    // when true, numbers and booleans are stored as they are instead of being converted to
+    // Strings, see setNativeValues in the subclasses
+    boolean nativeValues;
+
+    /**
+     * @return true if numbers and booleans stored in this bag are kept in their native form
+     */
+    public boolean hasNativeValues () {
+        return nativeValues;
+    }
+
+    // set by freeze, after which the bag is never written again
+    boolean frozen;
+
+    /**
+     * @return true if this bag has been frozen, and can't be changed
+     */
+    public boolean isFrozen () {
+        return frozen;
+    }
+
+    /**
+     * Make this bag, and every bag it contains, read-only. The storage is trimmed to size and the
+     * hash is computed up front, so that nothing about a frozen bag is ever written again, and it
+     * can be read from any number of threads without locking once it has been safely published
+     * to them (for example, through a final or volatile field, or a concurrent collection).
+     * Attempts to change a frozen bag throw an UnsupportedOperationException. To take a frozen
+     * snapshot of a bag that will go on changing, freeze a copy of it, and to get a changeable
+     * bag back from a frozen one, copy it (a copy-on-write copy is cheap).
+     *
+     * @return The bag, so that operations can be chained together.
+     */
+    abstract public Bag freeze ();
+
+    // called by the subclasses before they write to their storage
+    void checkFrozen () {
+        if (frozen) {
+            throw new UnsupportedOperationException ("frozen bags can't be changed");
+        }
+    }
+
+    // containers grow by at least this many elements at a time
+    private static final int MIN_GROWTH = 4;
+
+    // some VMs reserve a few header words in an array
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    /**
+     * the capacity to grow a container to. growth is geometric (by half again) so that filling a
+     * container one element at a time copies each element a constant number of times on average.
+     * @param capacity the current capacity of the container
+     * @param minimum the capacity that is needed
+     * @return the new capacity, at least the minimum
+     */
+    static int newCapacity (int capacity, int minimum) {
+        int grown = capacity + Math.max (capacity >> 1, MIN_GROWTH);
+        if ((grown < 0) || (grown > MAX_CAPACITY)) {
+            grown = MAX_CAPACITY;
+        }
+        return Math.max (grown, minimum);
+    }
+
     Object objectify (Object value) {
         if (value != null) {
             Class type = value.getClass ();
@@ -25,14 +91,17 @@ abstract public class Bag {
                     return value;
 
                 case "java.lang.Long": case "java.lang.Integer": case "java.lang.Short": case "java.lang.Byte":
-                case "java.lang.Character":
                 case "java.lang.Boolean":
                 case "java.lang.Double": case "java.lang.Float":
+                    // numbers and booleans are only converted if the bag doesn't store them natively
+                    return nativeValues ? value : value.toString ();
+
+                case "java.lang.Character":
                     return value.toString ();
 
                 case "com.brettonw.bag.BagObject":
                 case "com.brettonw.bag.BagArray":
-                    return value;
+                    return hold (value);
 
                 default:
                     // if it's an enum, just get the string value
@@ -47,6 +116,18 @@ abstract public class Bag {
         return null;
     }
 
+    // copy a stored value, strings and native values are immutable so only the bags need to be
+    // copied, either deeply or as copy-on-write copies of their own
+    static Object copy (Object value, boolean copyOnWrite) {
+        if (value instanceof BagObject) {
+            return new BagObject ((BagObject) value, copyOnWrite);
+        }
+        if (value instanceof BagArray) {
+            return new BagArray ((BagArray) value, copyOnWrite);
+        }
+        return value;
+    }
+
     /**
      *
      * @param key
@@ -54,6 +135,17 @@ abstract public class Bag {
      */
     abstract public Object getObject (String key);
 
+    /**
+     *
+     * @param keyPath
+     * @return
+     */
+    abstract public Object getObject (KeyPath keyPath);
+
+    // look up the component of the path at the given level in this bag, and the rest of the path
+    // in whatever is found there
+    abstract Object getObject (KeyPath keyPath, int level);
+
     /**
      * Returns true if the Selectable matches the 'match' criteria
      * @param booleanExpr a BooleanExpr containing criteria:
@@ -84,8 +176,32 @@ abstract public class Bag {
      * @return The element as a string, or notFound if the element is not found.
      */
     public String getString (String key, Supplier<String> notFound) {
-        Object object = getObject (key);
-        return (object instanceof String) ? (String) object : notFound.get ();
+        return asString (getObject (key), notFound);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as a String.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as a string, or null if the element is not found (or not a String).
+     */
+    public String getString (KeyPath keyPath) {
+        return getString (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as a String.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new String if the requested key was not found
+     * @return The element as a string, or notFound if the element is not found.
+     */
+    public String getString (KeyPath keyPath, Supplier<String> notFound) {
+        return asString (getObject (keyPath), notFound);
+    }
+
+    private static String asString (Object object, Supplier<String> notFound) {
+        return (object instanceof String) ? (String) object : isNative (object) ? object.toString () : notFound.get ();
     }
 
     /**
@@ -106,7 +222,31 @@ abstract public class Bag {
      * @return The element as a BagObject, or notFound if the element is not found.
      */
     public BagObject getBagObject (String key, Supplier<BagObject> notFound) {
-        Object object = getObject (key);
+        return asBagObject (getObject (key), notFound);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as a BagObject.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as a BagObject, or null if the element is not found.
+     */
+    public BagObject getBagObject (KeyPath keyPath) {
+        return getBagObject (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as a BagObject.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new BagObject if the requested key was not found
+     * @return The element as a BagObject, or notFound if the element is not found.
+     */
+    public BagObject getBagObject (KeyPath keyPath, Supplier<BagObject> notFound) {
+        return asBagObject (getObject (keyPath), notFound);
+    }
+
+    private static BagObject asBagObject (Object object, Supplier<BagObject> notFound) {
         return (object instanceof BagObject) ? (BagObject) object : notFound.get ();
     }
 
@@ -128,7 +268,31 @@ abstract public class Bag {
      * @return The element as a BagArray, or notFound if the element is not found.
      */
     public BagArray getBagArray (String key, Supplier<BagArray> notFound) {
-        Object object = getObject (key);
+        return asBagArray (getObject (key), notFound);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as a BagArray.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as a BagArray, or null if the element is not found.
+     */
+    public BagArray getBagArray (KeyPath keyPath) {
+        return getBagArray (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as a BagArray.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new BagArray if the requested key was not found
+     * @return The element as a BagArray, or notFound if the element is not found.
+     */
+    public BagArray getBagArray (KeyPath keyPath, Supplier<BagArray> notFound) {
+        return asBagArray (getObject (keyPath), notFound);
+    }
+
+    private static BagArray asBagArray (Object object, Supplier<BagArray> notFound) {
         return (object instanceof BagArray) ? (BagArray) object : notFound.get ();
     }
 
@@ -137,13 +301,54 @@ abstract public class Bag {
     }
 
     public <EnumType extends Enum<EnumType>> EnumType getEnum (String key, Class<EnumType> type, Supplier<EnumType> notFound) {
-        Object object = getObject (key);
+        return asEnum (getObject (key), type, notFound);
+    }
+
+    public <EnumType extends Enum<EnumType>> EnumType getEnum (KeyPath keyPath, Class<EnumType> type) {
+        return getEnum (keyPath, type, () -> null);
+    }
+
+    public <EnumType extends Enum<EnumType>> EnumType getEnum (KeyPath keyPath, Class<EnumType> type, Supplier<EnumType> notFound) {
+        return asEnum (getObject (keyPath), type, notFound);
+    }
+
+    private static <EnumType extends Enum<EnumType>> EnumType asEnum (Object object, Class<EnumType> type, Supplier<EnumType> notFound) {
         return (object instanceof String) ? Enum.valueOf (type, (String) object) : notFound.get ();
     }
 
-    private <ParsedType> ParsedType getParsed (String key, Function<String, ParsedType> parser, Supplier<ParsedType> notFound) {
-        Object object = getObject (key);
-        return (object instanceof String) ? parser.apply ((String) object) : notFound.get ();
+    static boolean isNative (Object object) {
+        return (object instanceof Number) || (object instanceof Boolean);
+    }
+
+    // converters from natively stored values to the types returned by the getters, these return
+    // null if the value can't be converted
+    static Boolean toBoolean (Object object) {
+        return (object instanceof Boolean) ? (Boolean) object : null;
+    }
+
+    static Long toLong (Object object) {
+        return (object instanceof Long) ? (Long) object : (object instanceof Number) ? Long.valueOf (((Number) object).longValue ()) : null;
+    }
+
+    static Integer toInteger (Object object) {
+        return (object instanceof Integer) ? (Integer) object : (object instanceof Number) ? Integer.valueOf (((Number) object).intValue ()) : null;
+    }
+
+    static Double toDouble (Object object) {
+        return (object instanceof Double) ? (Double) object : (object instanceof Number) ? Double.valueOf (((Number) object).doubleValue ()) : null;
+    }
+
+    static Float toFloat (Object object) {
+        return (object instanceof Float) ? (Float) object : (object instanceof Number) ? Float.valueOf (((Number) object).floatValue ()) : null;
+    }
+
+    private static <ParsedType> ParsedType getParsed (Object object, Function<String, ParsedType> parser, Function<Object, ParsedType> converter, Supplier<ParsedType> notFound) {
+        // strings are parsed, and natively stored values are converted without parsing
+        if (object instanceof String) {
+            return parser.apply ((String) object);
+        }
+        ParsedType value = converter.apply (object);
+        return (value != null) ? value : notFound.get ();
     }
 
     /**
@@ -164,7 +369,28 @@ abstract public class Bag {
      * @return The element as a Boolean, or notFound if the element is not found.
      */
     public Boolean getBoolean (String key, Supplier<Boolean> notFound) {
-        return getParsed (key, Boolean::new, notFound);
+        return getParsed (getObject (key), Boolean::new, Bag::toBoolean, notFound);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as a Boolean.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as a Boolean, or null if the element is not found.
+     */
+    public Boolean getBoolean (KeyPath keyPath) {
+        return getBoolean (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as a Boolean.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new Boolean if the requested key was not found
+     * @return The element as a Boolean, or notFound if the element is not found.
+     */
+    public Boolean getBoolean (KeyPath keyPath, Supplier<Boolean> notFound) {
+        return getParsed (getObject (keyPath), Boolean::new, Bag::toBoolean, notFound);
     }
 
     /**
@@ -185,7 +411,28 @@ abstract public class Bag {
      * @return The element as a Long, or notFound if the element is not found.
      */
     public Long getLong (String key, Supplier<Long> notFound) {
-        return getParsed (key, Long::new, notFound);
+        return getParsed (getObject (key), Long::new, Bag::toLong, notFound);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as a Long.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as a Long, or null if the element is not found.
+     */
+    public Long getLong (KeyPath keyPath) {
+        return getLong (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as a Long.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new Long if the requested key was not found
+     * @return The element as a Long, or notFound if the element is not found.
+     */
+    public Long getLong (KeyPath keyPath, Supplier<Long> notFound) {
+        return getParsed (getObject (keyPath), Long::new, Bag::toLong, notFound);
     }
 
     /**
@@ -206,7 +453,28 @@ abstract public class Bag {
      * @return The element as an Integer, or notFound if the element is not found.
      */
     public Integer getInteger (String key, Supplier<Integer> notFound) {
-        return getParsed (key, Integer::new, notFound);
+        return getParsed (getObject (key), Integer::new, Bag::toInteger, notFound);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as an Integer.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as an Integer, or null if the element is not found.
+     */
+    public Integer getInteger (KeyPath keyPath) {
+        return getInteger (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as an Integer.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new Integer if the requested key was not found
+     * @return The element as an Integer, or notFound if the element is not found.
+     */
+    public Integer getInteger (KeyPath keyPath, Supplier<Integer> notFound) {
+        return getParsed (getObject (keyPath), Integer::new, Bag::toInteger, notFound);
     }
 
     /**
@@ -227,7 +495,28 @@ abstract public class Bag {
      * @return The element as a Double, or notFound if the element is not found.
      */
     public Double getDouble (String key, Supplier<Double> notFound) {
-        return getParsed (key, Double::new, notFound);
+        return getParsed (getObject (key), Double::new, Bag::toDouble, notFound);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as a Double.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as a Double, or null if the element is not found.
+     */
+    public Double getDouble (KeyPath keyPath) {
+        return getDouble (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as a Double.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new Double if the requested key was not found
+     * @return The element as a Double, or notFound if the element is not found.
+     */
+    public Double getDouble (KeyPath keyPath, Supplier<Double> notFound) {
+        return getParsed (getObject (keyPath), Double::new, Bag::toDouble, notFound);
     }
 
     /**
@@ -248,28 +537,181 @@ abstract public class Bag {
      * @return The element as a Float, or notFound if the element is not found.
      */
     public Float getFloat (String key, Supplier<Float> notFound) {
-        return getParsed (key, Float::new, notFound);
+        return getParsed (getObject (key), Float::new, Bag::toFloat, notFound);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as a Float.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as a Float, or null if the element is not found.
+     */
+    public Float getFloat (KeyPath keyPath) {
+        return getFloat (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve an element by a precompiled path and return it as a Float.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new Float if the requested key was not found
+     * @return The element as a Float, or notFound if the element is not found.
+     */
+    public Float getFloat (KeyPath keyPath, Supplier<Float> notFound) {
+        return getParsed (getObject (keyPath), Float::new, Bag::toFloat, notFound);
     }
 
     /**
+     * Bags are equal if they are the same type and hold equal values in the same structure, which
+     * is checked by walking both of them. Strings and native values are never equal to each other,
+     * but native numbers of different types are equal if they have the same value. Whole numbers
+     * are never equal to floating point numbers, as they would not be written the same way.
      *
      * @param object
      * @return
      */
     @Override
     public boolean equals (Object object) {
-        return (object != null) &&
-                (getClass ().equals (object.getClass ())) &&
-                toString ().equals (object.toString ());
+        return (object == this) || ((object != null) &&
+                (getClass () == object.getClass ()) &&
+                (hashCode () == object.hashCode ()) &&
+                equalValues ((Bag) object));
     }
 
     /**
+     * The hash is computed from the structure of the bag, and cached. A change to this bag drops
+     * all of it, and a change to a bag it contains (at any depth) only drops the part that comes
+     * from the bags it contains, so the values that aren't bags are not hashed again. A frozen bag
+     * keeps the hash computed by freeze.
      *
      * @return
      */
     @Override
     public int hashCode () {
-        return toString ().hashCode ();
+        if (! hashValid) {
+            if (! valueHashValid) {
+                valueHash = hashValues (false);
+                hasBags = hasBags ();
+                valueHashValid = true;
+            }
+            hash = hasBags ? (valueHash + hashValues (true)) : valueHash;
+            hashValid = true;
+        }
+        return hash;
+    }
+
+    // the cached parts of the hash, see hashCode. whenever the whole hash is not valid, the whole
+    // hashes of the bags holding this one are not valid either
+    private int valueHash;
+    private boolean hasBags;
+    private boolean valueHashValid;
+    private int hash;
+    private boolean hashValid;
+
+    // the bags holding this one, which drop their cached hashes when it changes. nearly every bag
+    // is held by one bag at most, so that one is kept directly. the references are weak so that
+    // a nested bag doesn't keep the bags it has been stored in alive.
+    private WeakReference<Bag> holder;
+    private List<WeakReference<Bag>> moreHolders;
+
+    // called by the subclasses when they store a value, so that a stored bag can tell this one
+    // when it changes. frozen bags never change, and are never written, so they aren't told
+    Object hold (Object value) {
+        if ((value instanceof Bag) && (! ((Bag) value).frozen)) {
+            ((Bag) value).addHolder (this);
+        }
+        return value;
+    }
+
+    // synchronized, as reading a bag from several threads (filtering it, for instance) can store
+    // its nested bags in new bags
+    private synchronized void addHolder (Bag bag) {
+        Bag first = (holder != null) ? holder.get () : null;
+        if (first == bag) {
+            return;
+        }
+        if (first == null) {
+            holder = new WeakReference<> (bag);
+            return;
+        }
+        if (moreHolders == null) {
+            moreHolders = new ArrayList<> (1);
+        }
+        moreHolders.removeIf (reference -> reference.get () == null);
+        for (WeakReference<Bag> reference : moreHolders) {
+            if (reference.get () == bag) {
+                return;
+            }
+        }
+        moreHolders.add (new WeakReference<> (bag));
+    }
+
+    private void bagChanged () {
+        // the holders of a bag whose hash is already dropped have already dropped theirs
+        if (hashValid) {
+            hashValid = false;
+            Bag first = (holder != null) ? holder.get () : null;
+            if (first != null) {
+                first.bagChanged ();
+            }
+            if (moreHolders != null) {
+                for (WeakReference<Bag> reference : moreHolders) {
+                    Bag bag = reference.get ();
+                    if (bag != null) {
+                        bag.bagChanged ();
+                    }
+                }
+            }
+        }
+    }
+
+    // called by the subclasses whenever their contents change
+    void changed () {
+        checkFrozen ();
+        valueHashValid = false;
+        bagChanged ();
+    }
+
+    // the hash of either the bags, or of the other values, stored in this bag. the two are added
+    // together to make the whole hash, so they have to be computed the same way
+    abstract int hashValues (boolean bags);
+
+    abstract boolean hasBags ();
+
+    // compare the contents of this bag to another bag of the same type
+    abstract boolean equalValues (Bag bag);
+
+    // native numbers are hashed by value so that numbers of different types that are equal (see
+    // equalValue) hash the same, without making strings of them
+    static int hashValue (Object value) {
+        if (isFloatingPoint (value)) {
+            return Double.hashCode (((Number) value).doubleValue ());
+        }
+        if (value instanceof Number) {
+            return Long.hashCode (((Number) value).longValue ());
+        }
+        return (value != null) ? value.hashCode () : 0;
+    }
+
+    private static boolean isFloatingPoint (Object value) {
+        return (value instanceof Double) || (value instanceof Float);
+    }
+
+    static boolean equalValue (Object left, Object right) {
+        if (left == right) {
+            return true;
+        }
+        if ((left == null) || (right == null)) {
+            return false;
+        }
+        if ((left instanceof Number) && (right instanceof Number) && (left.getClass () != right.getClass ())) {
+            if (isFloatingPoint (left) && isFloatingPoint (right)) {
+                return Double.compare (((Number) left).doubleValue (), ((Number) right).doubleValue ()) == 0;
+            }
+            return (! isFloatingPoint (left)) && (! isFloatingPoint (right)) &&
+                    (((Number) left).longValue () == ((Number) right).longValue ());
+        }
+        return left.equals (right);
     }
 
     /**
@@ -284,6 +726,29 @@ abstract public class Bag {
         return toString(MimeType.DEFAULT);
     }
 
+    /**
+     * Emit this bag in the requested format directly into an Appendable, without building the
+     * output as a String first.
+     *
+     * @param appendable the destination, which is not flushed or closed
+     * @param format the mime type of the output
+     * @return true if the bag was written, false if the format is unknown or the destination failed
+     */
+    public boolean write (Appendable appendable, String format) {
+        return FormatWriter.write (this, format, appendable);
+    }
+
+    /**
+     * Emit this bag in the requested format directly into an OutputStream as UTF-8 text.
+     *
+     * @param outputStream the destination, which is flushed but not closed
+     * @param format the mime type of the output
+     * @return true if the bag was written, false if the format is unknown or the destination failed
+     */
+    public boolean write (OutputStream outputStream, String format) {
+        return FormatWriter.write (this, format, outputStream);
+    }
+
     static {
         // autoload all the reader subclasses to force their static initializers to get
         // called (but only if the reader constructor is visible, i.e. it's an actual
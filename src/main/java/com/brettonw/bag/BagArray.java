@@ -3,33 +3,46 @@ package com.brettonw.bag;
 import com.brettonw.bag.expr.BooleanExpr;
 import com.brettonw.bag.formats.FormatReader;
 import com.brettonw.bag.formats.FormatWriter;
-import com.brettonw.bag.formats.MimeType;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 /**
  * A collection of text-based values stored in a zero-based indexed array.
  * <p>
- * Note: the BagArray class, from a memory allocation standpoint, is not designed to work
- * efficiently with dynamic storage of very large numbers of elements (more than 1,000s). It will
- * work, but we have not chosen to focus on this as a potential use-case.
+ * The underlying storage grows geometrically, so adding elements one at a time is linear in
+ * total. When the number of elements is known ahead of time, pass it to the constructor or to
+ * ensureCapacity, and trimToSize can release any unused capacity once the array is complete.
  */
 public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Object> {
     private static final Logger log = LogManager.getLogger (BagArray.class);
 
     private static final int UNKNOWN_SIZE = -1;
     private static final int DEFAULT_CONTAINER_SIZE = 1;
-    private static final int DOUBLING_CAP = 128;
+
+    /**
+     * arrays with at least this many elements are sorted and queried in parallel across the
+     * common ForkJoinPool, when it has more than one thread
+     */
+    public static final int PARALLEL_THRESHOLD = 8 * 1024;
+
     private Object[] container;
     private int count;
 
+    // true while the container is shared with a copy-on-write copy, see unshare
+    private boolean shared;
+
     /**
      * Create a new BagArray with a default underlying storage size.
      */
@@ -51,7 +64,59 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
 
     BagArray (SourceAdapter sourceAdapter) throws ReadException {
         // make the victim
-        BagArray victim = FormatReader.readBagArray (sourceAdapter);
+        steal (FormatReader.readBagArray (sourceAdapter));
+    }
+
+    /**
+     * Create a new BagArray as deep copy of another BagArray. Strings and native values are
+     * immutable, so they are shared with the original rather than copied.
+     */
+    public BagArray (BagArray bagArray) {
+        this (bagArray, false);
+    }
+
+    /**
+     * Create a new BagArray as a copy of another BagArray.
+     *
+     * @param bagArray The BagArray to copy.
+     * @param copyOnWrite false for a deep copy, true for a copy that shares the underlying store
+     *                    of every bag that holds no other bags with the original until either of
+     *                    them is changed. The bags that hold other bags are copied up front, at
+     *                    every level, so the copy is never changed through a nested bag retrieved
+     *                    from the original, before or after the copy is made. Reading either
+     *                    side never changes its storage, so the copy and the original can both be
+     *                    read from several threads, as long as neither is changed.
+     */
+    public BagArray (BagArray bagArray, boolean copyOnWrite) {
+        count = bagArray.count;
+        nativeValues = bagArray.nativeValues;
+        if (copyOnWrite && (! bagArray.hasBags ())) {
+            // a container that holds no bags can't be changed from anywhere else, so it is shared
+            // until either side writes to it
+            container = bagArray.container;
+            shared = true;
+
+            // a frozen original never changes, so it doesn't need to know it is being shared
+            bagArray.shared |= (! bagArray.frozen);
+        } else {
+            container = new Object[Math.max (count, DEFAULT_CONTAINER_SIZE)];
+            for (int i = 0; i < count; ++i) {
+                container[i] = hold (copy (bagArray.container[i], copyOnWrite));
+            }
+        }
+    }
+
+    // give this BagArray its own container before it is changed. a shared container never holds
+    // bags, so only the array needs to be copied. both sides of a copy do this, as neither knows
+    // if the other has.
+    private void unshare () {
+        if (shared) {
+            container = container.clone ();
+            shared = false;
+        }
+    }
+
+    private void steal (BagArray victim) throws ReadException {
         if (victim == null) {
             throw new ReadException ();
         }
@@ -59,13 +124,25 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
         // now steal the victim's soul and leave them to die
         container = victim.container;
         count = victim.count;
+        nativeValues = victim.nativeValues;
+        for (int i = 0; i < count; ++i) {
+            hold (container[i]);
+        }
     }
 
     /**
-     * Create a new BagArray as deep copy of another BagArray
+     * Numbers and booleans are ordinarily converted to Strings when they are stored, and parsed
+     * back out by the typed getters. When native values are set, they are stored as they are, the
+     * typed getters return them without parsing, and getString returns their string form. The
+     * setting applies to values stored after it is made.
+     *
+     * @param nativeValues true to store numbers and booleans in their native form
+     * @return The BagArray, so that operations can be chained together.
      */
-    public BagArray (BagArray bagArray) {
-        this (new SourceAdapter (bagArray.toString (MimeType.DEFAULT), MimeType.DEFAULT));
+    public BagArray setNativeValues (boolean nativeValues) {
+        checkFrozen ();
+        this.nativeValues = nativeValues;
+        return this;
     }
 
     /**
@@ -78,8 +155,60 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
         return count;
     }
 
+    /**
+     * Make sure the underlying store can hold at least the given number of elements without
+     * being resized.
+     *
+     * @param capacity the number of elements the BagArray is expected to hold
+     * @return The BagArray, so that operations can be chained together.
+     */
+    public BagArray ensureCapacity (int capacity) {
+        if (capacity > container.length) {
+            checkFrozen ();
+            resize (capacity);
+        }
+        return this;
+    }
+
+    /**
+     * Release any unused capacity in the underlying store, for arrays that are complete and will
+     * be kept for a while.
+     *
+     * @return The BagArray, so that operations can be chained together.
+     */
+    public BagArray trimToSize () {
+        int capacity = Math.max (count, DEFAULT_CONTAINER_SIZE);
+        if (capacity < container.length) {
+            resize (capacity);
+        }
+        return this;
+    }
+
+    private void resize (int capacity) {
+        // the resized container is this bag's own, so a shared one doesn't need to be copied first
+        container = Arrays.copyOf (container, capacity);
+        shared = false;
+    }
+
+    @Override
+    public BagArray freeze () {
+        if (! frozen) {
+            trimToSize ();
+            for (int i = 0; i < count; ++i) {
+                if (container[i] instanceof Bag) {
+                    ((Bag) container[i]).freeze ();
+                }
+            }
+            hashCode ();
+            frozen = true;
+        }
+        return this;
+    }
+
     private void grow (int gapIndex) {
         // save the existing container
+        unshare ();
+        changed ();
         Object[] src = container;
 
         // compute the number of values that will have to move, and from it, the new count - and
@@ -102,14 +231,8 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
         // get the size of the array and resize it if necessary (copying the existing elements to
         // the new array - note that this means a sparse insertion will result in null elements in
         // the array
-        int size = container.length;
-        if (count > size) {
-            do {
-                // if the array is smaller than the cap then double its size, otherwise just add the block
-                size = (size > DOUBLING_CAP) ? (size + DOUBLING_CAP) : (size * 2);
-            }
-            while (count > size);
-            container = new Object[size];
+        if (count > container.length) {
+            container = new Object[newCapacity (container.length, count)];
             System.arraycopy (src, 0, container, 0, Math.min (gapIndex, src.length));
         }
 
@@ -160,10 +283,13 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      */
     public static BagArray concat (BagArray left, BagArray right) {
         int count = left.count + right.count;
-        BagArray bagArray = new BagArray (count);
+        BagArray bagArray = new BagArray (count).setNativeValues (left.nativeValues);
         bagArray.count = count;
         System.arraycopy (left.container, 0, bagArray.container, 0, left.count);
         System.arraycopy (right.container, 0, bagArray.container, left.count, right.count);
+        for (int i = 0; i < count; ++i) {
+            bagArray.hold (bagArray.container[i]);
+        }
         return bagArray;
     }
 
@@ -180,12 +306,16 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      */
     public BagArray replace (int index, Object object) {
         // note that arrays can store null objects, unlike bags
+        unshare ();
+        changed ();
         container[index] = objectify (object);
         return this;
     }
 
     private void removeIndex (int index) {
         // assumes index has already been checked for validity
+        unshare ();
+        changed ();
         int gapIndex = index + 1;
         System.arraycopy (container, gapIndex, container, index, count - gapIndex);
         --count;
@@ -200,6 +330,7 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      * @return The BagArray, so that operations can be chained together.
      */
     public BagArray remove (int index) {
+        checkFrozen ();
         if ((index >= 0) && (index < count)) {
             removeIndex (index);
         }
@@ -216,6 +347,7 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      * @return
      */
     public Object getAndRemove (int index) {
+        checkFrozen ();
         if ((index >= 0) && (index < count)) {
             Object object = container[index];
             removeIndex (index);
@@ -262,16 +394,32 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      */
     @Override
     public Object getObject (String key) {
-        // separate the key into path components, the "local" key value is the first component, so
-        // use that to conduct the search. We are only interested in values that indicate the search
-        // found the requested key
-        String[] path = Key.split (key);
-        int index = keyToIndex (path[0]);
+        // simple keys are looked up directly, paths are compiled and traversed
+        if (key.indexOf (BagObject.PATH_SEPARATOR_CHAR) < 0) {
+            return getObject (keyToIndex (key));
+        }
+        return getObject (new KeyPath (key), 0);
+    }
+
+    /**
+     * Return an object stored at the requested path. @see #getObject(String)
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The indexed element (if found), or null
+     */
+    @Override
+    public Object getObject (KeyPath keyPath) {
+        return getObject (keyPath, 0);
+    }
+
+    @Override
+    Object getObject (KeyPath keyPath, int level) {
+        // grab the found element... if the path component is the last one, this is the element
+        // we were looking for, otherwise recur on the found element as another Bag
+        int index = keyPath.getIndex (level, count);
         if ((index >= 0) && (index < count)) {
-            // grab the found element... if the path was only one element long, this is the element
-            // we were looking for, otherwise recur on the found element as another BagObject
             Object found = container[index];
-            return (path.length == 1) ? found : ((Bag) found).getObject (path[1]);
+            return keyPath.isLast (level) ? found : ((Bag) found).getObject (keyPath, level + 1);
         }
         return null;
     }
@@ -284,6 +432,9 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      */
     public String getString (int index) {
         Object object = getObject (index);
+        if (isNative (object)) {
+            return object.toString ();
+        }
         try {
             return (String) object;
         } catch (ClassCastException exception) {
@@ -299,8 +450,8 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      * @return The element as a Boolean, or null if the element is not found.
      */
     public Boolean getBoolean (int index) {
-        String string = getString (index);
-        return (string != null) ? Boolean.parseBoolean (string) : null;
+        Object object = getObject (index);
+        return (object instanceof String) ? Boolean.valueOf ((String) object) : toBoolean (object);
     }
 
     /**
@@ -311,8 +462,8 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      */
     @SuppressWarnings ("WeakerAccess")
     public Long getLong (int index) {
-        String string = getString (index);
-        return (string != null) ? Long.parseLong (string) : null;
+        Object object = getObject (index);
+        return (object instanceof String) ? Long.valueOf ((String) object) : toLong (object);
     }
 
     /**
@@ -333,8 +484,8 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      * @return The element as a Double, or null if the element is not found.
      */
     public Double getDouble (int index) {
-        String string = getString (index);
-        return (string != null) ? Double.parseDouble (string) : null;
+        Object object = getObject (index);
+        return (object instanceof String) ? Double.valueOf ((String) object) : toDouble (object);
     }
 
     /**
@@ -385,21 +536,88 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
         return FormatWriter.write (this, format);
     }
 
+    // each position gets its own odd multiplier, so the hash depends on the order of the elements
+    // but the elements can still be hashed in two separate passes
+    private static int weight (int index) {
+        return ((2 * index) + 1) * 0x9e3779b9;
+    }
+
+    @Override
+    int hashValues (boolean bags) {
+        int hash = 0;
+        for (int i = 0; i < count; ++i) {
+            if ((container[i] instanceof Bag) == bags) {
+                hash += hashValue (container[i]) * weight (i);
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    boolean hasBags () {
+        for (int i = 0; i < count; ++i) {
+            if (container[i] instanceof Bag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    boolean equalValues (Bag bag) {
+        BagArray bagArray = (BagArray) bag;
+        if (count != bagArray.count) {
+            return false;
+        }
+        for (int i = 0; i < count; ++i) {
+            if (! equalValue (container[i], bagArray.container[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isParallel () {
+        return (count >= PARALLEL_THRESHOLD) && (ForkJoinPool.getCommonPoolParallelism () > 1);
+    }
+
+    // build an array from values that were computed in parallel, in their original order
+    private BagArray from (Object[] values) {
+        BagArray bagArray = new BagArray (values.length).setNativeValues (nativeValues);
+        for (Object value : values) {
+            bagArray.add (value);
+        }
+        return bagArray;
+    }
+
     /**
      *
      * @param function
      * @return
      */
     public BagArray map (Function<Object, Object> function) {
-        final BagArray bagArray = new BagArray (count);
+        final BagArray bagArray = new BagArray (count).setNativeValues (nativeValues);
         for (int i = 0; i < count; ++i) {
             bagArray.add (function.apply (container[i]));
         }
         return bagArray;
     }
 
+    /**
+     * like map, but the function is applied to the elements in parallel across the common
+     * ForkJoinPool, so it must be safe to call from several threads at once. the results are in
+     * the same order as the elements.
+     * @param function
+     * @return
+     */
+    public BagArray parallelMap (Function<Object, Object> function) {
+        Object[] values = new Object[count];
+        Arrays.parallelSetAll (values, i -> function.apply (container[i]));
+        return from (values);
+    }
+
     public BagArray filter (Predicate<Object> predicate) {
-        final BagArray bagArray = new BagArray ();
+        final BagArray bagArray = new BagArray ().setNativeValues (nativeValues);
         for (int i = 0; i < count; ++i) {
             if (predicate.test (container[i])) {
                 bagArray.add (container[i]);
@@ -408,6 +626,20 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
         return bagArray;
     }
 
+    /**
+     * like filter, but the predicate is tested on the elements in parallel across the common
+     * ForkJoinPool, so it must be safe to call from several threads at once. the elements that
+     * pass are kept in their original order.
+     * @param predicate
+     * @return
+     */
+    public BagArray parallelFilter (Predicate<Object> predicate) {
+        return from (IntStream.range (0, count).parallel ()
+                .filter (i -> predicate.test (container[i]))
+                .mapToObj (i -> container[i])
+                .toArray ());
+    }
+
     @Override
     public Iterator<Object> iterator () {
         return new Iterator<Object> () {
@@ -433,7 +665,7 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
     @Override
     public BagArray select (SelectKey selectKey) {
         if (selectKey != null) {
-            BagArray bagArray = new BagArray ();
+            BagArray bagArray = new BagArray ().setNativeValues (nativeValues);
             for (int i = 0; i < count; ++i) {
                 String key = Integer.toString (i);
                 if ((key = selectKey.select (key)) != null) {
@@ -452,33 +684,77 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      * @return
      */
     public BagArray sort (SortKey... keys) {
-        // final value, so that lambda expressions can reference it
-        final SortKey[] sortKeys = (keys != null) ? keys : SortKey.DEFAULT;
-
-        // if there is no key
-        if (sortKeys[0].getKey () == null) {
-            // we'll treat the array as strings or bare value, and just sort it
-            Arrays.sort (container, 0, count, (a, b) -> {
-                return sortKeys[0].compare ((String) a, (String) b);
-            });
+        // a frozen bag rejects the change even when there is nothing to sort
+        checkFrozen ();
+        if (count < 2) {
+            return this;
+        }
+        unshare ();
+        changed ();
+
+        // extract and convert the sort values of every element once, up front, and sort the
+        // element indices against them
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; ++i) {
+            order[i] = i;
+        }
+        Comparator<Integer> comparator = SortColumn.comparator (SortColumn.of (keys, container, count));
+
+        // both sorts are stable, so the result is the same either way
+        if (isParallel ()) {
+            Arrays.parallelSort (order, comparator);
         } else {
-            // we'll sort using the keys hierarchically...
-            Arrays.sort (container, 0, count, (a, b) -> {
-                for (int i = 0, end = sortKeys.length; i < end; ++i) {
-                    String key = sortKeys[i].getKey ();
-                    Object objectA = (a != null) ? ((Bag) a).getObject (key) : null;
-                    Object objectB = (b != null) ? ((Bag) b).getObject (key) : null;
-                    int cmp = sortKeys[i].compare ((String) objectA, (String) objectB);
-                    if (cmp != 0) {
-                        return cmp;
-                    }
-                }
-                return 0;
-            } );
+            Arrays.sort (order, comparator);
+        }
+
+        // put the elements in the sorted order
+        Object[] elements = Arrays.copyOf (container, count);
+        for (int i = 0; i < count; ++i) {
+            container[i] = elements[order[i]];
         }
         return this;
     }
 
+    /**
+     * the first n elements of the array as if it were sorted, without sorting the whole array.
+     * this is the same as copying the array, sorting the copy, and taking the subset (0, n), but
+     * only ever keeps n elements in order. the array itself is not changed.
+     *
+     * @param n the number of elements to return
+     * @param keys array of SortKey
+     * @return a new BagArray with the first min (n, count) elements, in sorted order
+     */
+    public BagArray topK (int n, SortKey... keys) {
+        n = Math.max (0, Math.min (n, count));
+        BagArray bagArray = new BagArray (n).setNativeValues (nativeValues);
+        if (n > 0) {
+            // ties are broken by position, so the result matches the stable sort
+            Comparator<Integer> comparator = SortColumn.comparator (SortColumn.of (keys, container, count))
+                    .thenComparing (Comparator.naturalOrder ());
+
+            // keep the best n seen so far in a heap, with the worst of them on top
+            PriorityQueue<Integer> heap = new PriorityQueue<> (n, comparator.reversed ());
+            for (int i = 0; i < count; ++i) {
+                if (heap.size () < n) {
+                    heap.add (i);
+                } else if (comparator.compare (i, heap.peek ()) < 0) {
+                    heap.poll ();
+                    heap.add (i);
+                }
+            }
+
+            // the heap empties worst first
+            Object[] elements = new Object[n];
+            for (int i = n - 1; i >= 0; --i) {
+                elements[i] = container[heap.poll ()];
+            }
+            for (Object element : elements) {
+                bagArray.add (element);
+            }
+        }
+        return bagArray;
+    }
+
     /**
      *
      * @param match a BooleanExpr describing the match criteria
@@ -486,34 +762,52 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      * @return
      */
     public BagArray query (BooleanExpr match, SelectKey selectKey) {
-        // create the destination
+        // the match expression is compiled (once, and cached) rather than interpreted per element
+        Predicate<Bag> predicate = (match != null) ? match.getPredicate () : null;
+
+        // large arrays are matched in parallel, keeping the results in order
+        if (isParallel ()) {
+            return from (IntStream.range (0, count).parallel ()
+                    .mapToObj (i -> query (container[i], predicate, selectKey))
+                    .filter (Objects::nonNull)
+                    .toArray ());
+        }
 
-        BagArray bagArray = new BagArray ();
+        // create the destination
+        BagArray bagArray = new BagArray ().setNativeValues (nativeValues);
 
         // loop over all of the objects
-        for (Object object : container) {
-            if (object instanceof Bag) {
-                // try to match the 'match' clause
-                Bag bag = (Bag) object;
-                boolean matches = (match == null) || bag.match (match);
-                if (matches) {
-                    // select the desired parts
-                    object = ((Selectable) bag).select (selectKey);
-                    bagArray.add (object);
-                }
-            } else if (object instanceof String){
-                // XXX TODO
-                // it's a string, 'match' needs to be { field:"*",... } or not have field
-            } else {
-                // skip it, don't know what it is
+        for (int i = 0; i < count; ++i) {
+            Object object = query (container[i], predicate, selectKey);
+            if (object != null) {
+                bagArray.add (object);
             }
         }
         return bagArray;
     }
 
+    // the selected parts of one element, or null if it doesn't match
+    static Object query (Object object, Predicate<Bag> predicate, SelectKey selectKey) {
+        if (object instanceof Bag) {
+            // try to match the 'match' clause
+            Bag bag = (Bag) object;
+            boolean matches = (predicate == null) || predicate.test (bag);
+            if (matches) {
+                // select the desired parts
+                return ((Selectable) bag).select (selectKey);
+            }
+        } else if (object instanceof String){
+            // XXX TODO
+            // it's a string, 'match' needs to be { field:"*",... } or not have field
+        } else {
+            // skip it, don't know what it is
+        }
+        return null;
+    }
+
     public BagArray subset (int start, int count) {
         count = Math.min (count, getCount () - start);
-        BagArray bagArray = new BagArray (count);
+        BagArray bagArray = new BagArray (count).setNativeValues (nativeValues);
         for (int i = 0; i < count; ++i) {
             bagArray.add (container[i + start]);
         }
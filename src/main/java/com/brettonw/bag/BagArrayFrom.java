@@ -1,6 +1,7 @@
 package com.brettonw.bag;
 
 import com.brettonw.bag.formats.FormatReader;
+import com.brettonw.bag.formats.JsonElements;
 import com.brettonw.bag.formats.MimeType;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -10,6 +11,7 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 public class BagArrayFrom {
     private static final Logger log = LogManager.getLogger (BagArrayFrom.class);
@@ -52,8 +54,13 @@ public class BagArrayFrom {
 
     static public BagArray file (File file, String mimeType, Supplier<BagArray> fail) {
         try {
-            SourceAdapter sourceAdapter = new SourceAdapterReader(file, mimeType);
-            return FormatReader.readBagArray (sourceAdapter);
+            // large files are mapped and parsed in place, smaller ones are streamed
+            if (SourceAdapterMapped.shouldMap (file)) {
+                return FormatReader.readBagArray (new SourceAdapterMapped (file, mimeType));
+            }
+            try (SourceAdapterStream sourceAdapter = new SourceAdapterStream (file, mimeType)) {
+                return FormatReader.readBagArray (sourceAdapter);
+            }
         } catch (Exception exception) {
             log.error (exception);
         }
@@ -98,14 +105,44 @@ public class BagArrayFrom {
 
     static public BagArray inputStream (InputStream inputStream, String mimeType, Supplier<BagArray> fail) {
         try {
-            SourceAdapter sourceAdapter = new SourceAdapterReader(inputStream, mimeType);
-            return FormatReader.readBagArray (sourceAdapter);
+            try (SourceAdapterStream sourceAdapter = new SourceAdapterStream (inputStream, mimeType)) {
+                return FormatReader.readBagArray (sourceAdapter);
+            }
         } catch (Exception exception) {
             log.error (exception);
         }
         return fail.get ();
     }
 
+    // element by element from a file, for a JSON array or newline-delimited JSON (by the mime type
+    // or file extension). the stream must be closed to release the file.
+    static public Stream<BagObject> elements (File file) {
+        return elements (file, MimeType.DEFAULT);
+    }
+
+    static public Stream<BagObject> elements (File file, String mimeType) {
+        try {
+            return elements (new SourceAdapterStream (file, mimeType));
+        } catch (Exception exception) {
+            log.error (exception);
+        }
+        return Stream.empty ();
+    }
+
+    // element by element from a stream, which is closed when the returned stream is closed
+    static public Stream<BagObject> elements (InputStream inputStream) {
+        return elements (inputStream, MimeType.DEFAULT);
+    }
+
+    static public Stream<BagObject> elements (InputStream inputStream, String mimeType) {
+        return elements (new SourceAdapterStream (inputStream, mimeType));
+    }
+
+    static private Stream<BagObject> elements (SourceAdapterStream sourceAdapter) {
+        boolean valueSequence = MimeType.getFromMimeType (sourceAdapter.getMimeType ()).equals (MimeType.NDJSON);
+        return new JsonElements (sourceAdapter.getChannel (), valueSequence).stream ();
+    }
+
     // from a HTTP connection (get)
     static public BagArray url (String urlString) {
         return url (urlString, () -> null);
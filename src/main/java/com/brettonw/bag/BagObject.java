@@ -2,32 +2,45 @@ package com.brettonw.bag;
 
 import com.brettonw.bag.formats.FormatReader;
 import com.brettonw.bag.formats.FormatWriter;
-import com.brettonw.bag.formats.MimeType;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.Arrays;
+
 /**
- * A collection of text-based values store in key/value pairs (maintained in a sorted array).
+ * A collection of text-based values store in key/value pairs (maintained as parallel arrays of
+ * keys and values, sorted by key).
+ * <p>
+ * Wide objects (more than HASH_THRESHOLD keys, or when requested at construction) switch to a
+ * hashed storage strategy, where the pairs are kept in insertion order and indexed by an open
+ * addressing hash table, so that storing and looking up keys doesn't get slower as the object
+ * grows. The keys are still reported in sorted order.
  */
 public class BagObject extends Bag implements Selectable<BagObject> {
     private static final Logger log = LogManager.getLogger (BagObject.class);
 
     private static final int UNKNOWN_SIZE = -1;
     private static final int DEFAULT_CONTAINER_SIZE = 1;
-    private static final int DOUBLING_CAP = 16;
+    private static final int HASH_THRESHOLD = 64;
+    private static final int MIN_TABLE_SIZE = 16;
     static final String PATH_SEPARATOR = "/";
+    static final char PATH_SEPARATOR_CHAR = '/';
 
-    private class Pair {
-        final String key;
-        Object value;
+    // the entries are stored as parallel arrays of keys and values, rather than as an object per
+    // entry, so each entry costs two references and a lookup only touches the keys
+    private String[] keys;
+    private Object[] values;
+    private int count;
 
-        Pair (String key) {
-            this.key = key;
-        }
-    }
+    // hashed storage, these are null while the keys are kept sorted. the table holds (entry
+    // index + 1) for each key, with 0 marking an empty slot, and the key hashes are cached in an
+    // array parallel to the keys. the sorted keys are computed when needed.
+    private int[] table;
+    private int[] hashes;
+    private String[] sortedKeys;
 
-    private Pair[] container;
-    private int count;
+    // true while the storage is shared with a copy-on-write copy, see unshare
+    private boolean shared;
 
     /**
      * Create a new BagObject with a default underlying storage size.
@@ -44,26 +57,125 @@ public class BagObject extends Bag implements Selectable<BagObject> {
      */
     public BagObject (int size) {
         count = 0;
-        container = new Pair[Math.max (size, DEFAULT_CONTAINER_SIZE)];
+        size = Math.max (size, DEFAULT_CONTAINER_SIZE);
+        keys = new String[size];
+        values = new Object[size];
+    }
+
+    /**
+     * Create a new BagObject with hint for the underlying storage size, and the storage strategy.
+     * @param size The expected number of elements in the BagObject, treated as a hint to optimize
+     *             memory allocation.
+     * @param hashed true to use hashed storage from the start, rather than switching to it when
+     *               the BagObject grows past a threshold.
+     */
+    public BagObject (int size, boolean hashed) {
+        this (size);
+        if (hashed) {
+            buildTable ();
+        }
     }
 
     BagObject (SourceAdapter sourceAdapter) throws ReadException {
         // make the victim
-        BagObject victim = FormatReader.readBagObject (sourceAdapter);
+        steal (FormatReader.readBagObject (sourceAdapter));
+    }
+
+    /**
+     * Create a new BagObject as deep copy of another BagObject. Strings and native values are
+     * immutable, so they are shared with the original rather than copied.
+     */
+    public BagObject (BagObject bagObject) {
+        this (bagObject, false);
+    }
+
+    /**
+     * Create a new BagObject as a copy of another BagObject.
+     *
+     * @param bagObject The BagObject to copy.
+     * @param copyOnWrite false for a deep copy, true for a copy that shares the underlying store
+     *                    of every bag that holds no other bags with the original until either of
+     *                    them is changed. The bags that hold other bags are copied up front, at
+     *                    every level, so the copy is never changed through a nested bag retrieved
+     *                    from the original, before or after the copy is made. Reading either
+     *                    side never changes its storage, so the copy and the original can both be
+     *                    read from several threads, as long as neither is changed.
+     */
+    public BagObject (BagObject bagObject, boolean copyOnWrite) {
+        count = bagObject.count;
+        nativeValues = bagObject.nativeValues;
+        if (copyOnWrite && (! bagObject.hasBags ())) {
+            // storage that holds no bags can't be changed from anywhere else, so it is shared
+            // until either side writes to it
+            keys = bagObject.keys;
+            values = bagObject.values;
+            table = bagObject.table;
+            hashes = bagObject.hashes;
+            sortedKeys = bagObject.sortedKeys;
+            shared = true;
+
+            // a frozen original never changes, so it doesn't need to know it is being shared
+            bagObject.shared |= (! bagObject.frozen);
+        } else {
+            int capacity = Math.max (count, DEFAULT_CONTAINER_SIZE);
+            keys = Arrays.copyOf (bagObject.keys, capacity);
+            values = new Object[capacity];
+            for (int i = 0; i < count; ++i) {
+                values[i] = hold (copy (bagObject.values[i], copyOnWrite));
+            }
+            if (bagObject.table != null) {
+                hashes = Arrays.copyOf (bagObject.hashes, capacity);
+                buildTable ();
+            }
+        }
+    }
+
+    private void steal (BagObject victim) throws ReadException {
         if (victim == null) {
             throw new ReadException ();
         }
 
         // now steal the victim's soul and leave them to die
-        container = victim.container;
+        keys = victim.keys;
+        values = victim.values;
         count = victim.count;
+        table = victim.table;
+        hashes = victim.hashes;
+        nativeValues = victim.nativeValues;
+        for (int i = 0; i < count; ++i) {
+            hold (values[i]);
+        }
+    }
+
+    // give this BagObject its own storage before it is changed. shared storage never holds bags,
+    // so only the arrays need to be copied. both sides of a copy do this, as neither knows if the
+    // other has.
+    private void unshare () {
+        if (shared) {
+            keys = keys.clone ();
+            values = values.clone ();
+            if (table != null) {
+                table = table.clone ();
+                hashes = hashes.clone ();
+            }
+            shared = false;
+        }
     }
 
     /**
-     * Create a new BagObject as deep copy of another BagObject
+     * Numbers and booleans are ordinarily converted to Strings when they are stored, and parsed
+     * back out by the typed getters. When native values are set, they are stored as they are, the
+     * typed getters return them without parsing, and getString returns their string form. The
+     * setting applies to values stored after it is made, and is inherited by the BagObjects and
+     * BagArrays created implicitly to store paths and multiple values.
+     *
+     * @param nativeValues true to store numbers and booleans in their native form
+     * @return The BagObject, so that operations can be chained together.
      */
-    public BagObject (BagObject bagObject) {
-        this (new SourceAdapter (bagObject.toString (MimeType.DEFAULT), MimeType.DEFAULT));
+    public BagObject setNativeValues (boolean nativeValues) {
+        checkFrozen ();
+        this.nativeValues = nativeValues;
+        return this;
     }
 
     /**
@@ -76,18 +188,157 @@ public class BagObject extends Bag implements Selectable<BagObject> {
         return count;
     }
 
+    /**
+     * Make sure the underlying store can hold at least the given number of elements without
+     * being resized.
+     *
+     * @param capacity the number of elements the BagObject is expected to hold
+     * @return The BagObject, so that operations can be chained together.
+     */
+    public BagObject ensureCapacity (int capacity) {
+        if (capacity > keys.length) {
+            checkFrozen ();
+            resize (capacity);
+        }
+        return this;
+    }
+
+    /**
+     * Release any unused capacity in the underlying store, for objects that are complete and will
+     * be kept for a while.
+     *
+     * @return The BagObject, so that operations can be chained together.
+     */
+    public BagObject trimToSize () {
+        int capacity = Math.max (count, DEFAULT_CONTAINER_SIZE);
+        if (capacity < keys.length) {
+            resize (capacity);
+        }
+        return this;
+    }
+
+    @Override
+    public BagObject freeze () {
+        if (! frozen) {
+            trimToSize ();
+            if (table != null) {
+                // size the table to the trimmed store, and sort the keys now, as they can't be
+                // sorted lazily after the object is shared
+                buildTable ();
+                keys ();
+            }
+            for (int i = 0; i < count; ++i) {
+                if (values[i] instanceof Bag) {
+                    ((Bag) values[i]).freeze ();
+                }
+            }
+            hashCode ();
+            frozen = true;
+        }
+        return this;
+    }
+
+    private void resize (int capacity) {
+        unshare ();
+        keys = Arrays.copyOf (keys, capacity);
+        values = Arrays.copyOf (values, capacity);
+        if (hashes != null) {
+            hashes = Arrays.copyOf (hashes, capacity);
+        }
+    }
+
     private void grow (int gapIndex) {
-        Pair[] src = container;
-        if (count == container.length) {
-            // if the array is smaller than the cap then double its size, otherwise just add the block
-            int newSize = (count > DOUBLING_CAP) ? (count + DOUBLING_CAP) : (count * 2);
-            container = new Pair[newSize];
-            System.arraycopy (src, 0, container, 0, gapIndex);
-        }
-        System.arraycopy (src, gapIndex, container, gapIndex + 1, count - gapIndex);
+        String[] srcKeys = keys;
+        Object[] srcValues = values;
+        if (count == keys.length) {
+            int newSize = newCapacity (count, count + 1);
+            keys = new String[newSize];
+            values = new Object[newSize];
+            System.arraycopy (srcKeys, 0, keys, 0, gapIndex);
+            System.arraycopy (srcValues, 0, values, 0, gapIndex);
+            if (hashes != null) {
+                hashes = Arrays.copyOf (hashes, newSize);
+            }
+        }
+        System.arraycopy (srcKeys, gapIndex, keys, gapIndex + 1, count - gapIndex);
+        System.arraycopy (srcValues, gapIndex, values, gapIndex + 1, count - gapIndex);
         ++count;
     }
 
+    private static int hash (String key) {
+        // spread the high bits down, as the table index only uses the low bits
+        int hash = key.hashCode ();
+        return hash ^ (hash >>> 16);
+    }
+
+    private void buildTable () {
+        // size the table to keep it at most half full
+        int tableSize = MIN_TABLE_SIZE;
+        while (tableSize < (keys.length * 2)) {
+            tableSize <<= 1;
+        }
+        table = new int[tableSize];
+        if (hashes == null) {
+            hashes = new int[keys.length];
+            for (int i = 0; i < count; ++i) {
+                hashes[i] = hash (keys[i]);
+            }
+        }
+        for (int i = 0; i < count; ++i) {
+            insertSlot (i);
+        }
+    }
+
+    private void insertSlot (int index) {
+        int mask = table.length - 1;
+        int slot = hashes[index] & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index + 1;
+    }
+
+    private int findSlot (String key, int hash) {
+        // linear probe from the home slot of the key until we find it, or an empty slot. returns
+        // the slot holding the key, or an encoded version of the empty slot where it should go
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return -(slot + 1);
+            }
+            int index = entry - 1;
+            if ((hashes[index] == hash) && keys[index].equals (key)) {
+                return slot;
+            }
+        }
+    }
+
+    private void deleteSlot (int slot) {
+        // backward shift deletion, entries after the hole move into it if the hole is between
+        // their home slot and where they are now, so no probe sequence is broken
+        int mask = table.length - 1;
+        int hole = slot;
+        table[hole] = 0;
+        for (int next = (hole + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = hashes[table[next] - 1] & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                table[next] = 0;
+                hole = next;
+            }
+        }
+    }
+
+    private int find (String key) {
+        // returns the index of the key in the store, or a negative number if it's not there
+        if (table != null) {
+            int slot = findSlot (key, hash (key));
+            return (slot >= 0) ? (table[slot] - 1) : -1;
+        }
+        return binarySearch (key);
+    }
+
     private int binarySearch (String key) {
         // starting conditions mapped to either end of the internal store
         int low = 0;
@@ -98,7 +349,7 @@ public class BagObject extends Bag implements Selectable<BagObject> {
             // compute the midpoint, and compare the search term against the key stored there, this
             // uses the unsigned right shift in lieu of division by 2
             int mid = (low + high) >>> 1;
-            int cmp = container[mid].key.compareTo (key);
+            int cmp = keys[mid].compareTo (key);
 
             // check the result of the comparison
             if (cmp < 0) {
@@ -118,19 +369,54 @@ public class BagObject extends Bag implements Selectable<BagObject> {
         return -(low + 1);
     }
 
-    private Pair getOrAddPair (String key) {
-        // conduct a binary search for where the pair should be
+    private int getOrAddIndex (String key) {
+        unshare ();
+        changed ();
+        if (table != null) {
+            return getOrAddHashedIndex (key);
+        }
+
+        // conduct a binary search for where the key should be
         int index = binarySearch (key);
         if (index < 0) {
             // the binary search returns a funky encoding of the index where the new value
             // should go when it's not there, so we have to decode that number (-index - 1)
             index = -(index + 1);
 
-            // make sure there is room in the underlying container, then store a new (empty) Pair
+            // make sure there is room in the underlying store, then store the key with an empty
+            // value
             grow (index);
-            container[index] = new Pair (key);
+            keys[index] = key;
+            values[index] = null;
+
+            // switch to hashed storage when the object gets wide
+            if (count > HASH_THRESHOLD) {
+                buildTable ();
+            }
+        }
+        return index;
+    }
+
+    private int getOrAddHashedIndex (String key) {
+        int hash = hash (key);
+        int slot = findSlot (key, hash);
+        if (slot >= 0) {
+            return table[slot] - 1;
+        }
+
+        // add the new entry at the end of the store, and index it
+        int index = count;
+        grow (index);
+        keys[index] = key;
+        values[index] = null;
+        hashes[index] = hash;
+        sortedKeys = null;
+        if ((count * 2) > table.length) {
+            buildTable ();
+        } else {
+            table[-(slot + 1)] = index + 1;
         }
-        return container[index];
+        return index;
     }
 
     /**
@@ -147,21 +433,70 @@ public class BagObject extends Bag implements Selectable<BagObject> {
      */
     @Override
     public Object getObject (String key) {
-        // separate the key into path components, the "local" key value is the first component, so
-        // use that to conduct the search. We are only interested in values that indicate the search
-        // found the requested key
-        String[] path = Key.split (key);
-        int index = binarySearch (path[0]);
+        // simple keys are looked up directly, paths are compiled and traversed
+        if (key.indexOf (PATH_SEPARATOR_CHAR) < 0) {
+            int index = find (key);
+            return (index >= 0) ? values[index] : null;
+        }
+        return getObject (new KeyPath (key), 0);
+    }
+
+    /**
+     * Return an object stored at the requested path. @see #getObject(String)
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The indexed element (if found), or null
+     */
+    @Override
+    public Object getObject (KeyPath keyPath) {
+        return getObject (keyPath, 0);
+    }
+
+    @Override
+    Object getObject (KeyPath keyPath, int level) {
+        // find the component at this level of the path... if it's the last component, this is the
+        // element we were looking for, otherwise recur on the found element as another Bag
+        int index = find (keyPath.getComponent (level));
         if (index >= 0) {
-            // grab the found element... if the path was only one element long, this is the element
-            // we were looking for, otherwise recur on the found element as another BagObject
-            Pair pair = container[index];
-            Object found = pair.value;
-            return (path.length == 1) ? found : ((Bag) found).getObject (path[1]);
+            Object found = values[index];
+            return keyPath.isLast (level) ? found : ((Bag) found).getObject (keyPath, level + 1);
         }
         return null;
     }
 
+    // walk the path down to the BagObject that holds the last component, creating BagObjects for
+    // any components that don't exist yet
+    private BagObject getOrAddParent (KeyPath keyPath) {
+        BagObject bagObject = this;
+        for (int i = 0, last = keyPath.getLength () - 1; i < last; ++i) {
+            int index = bagObject.getOrAddIndex (keyPath.getComponent (i));
+            BagObject child = (BagObject) bagObject.values[index];
+            if (child == null) {
+                bagObject.values[index] = bagObject.hold (child = new BagObject ().setNativeValues (bagObject.nativeValues));
+            }
+            bagObject = child;
+        }
+        return bagObject;
+    }
+
+    // walk the path down to the BagObject that holds the last component, or null if there isn't
+    // one
+    private BagObject getParent (KeyPath keyPath) {
+        BagObject bagObject = this;
+        for (int i = 0, last = keyPath.getLength () - 1; i < last; ++i) {
+            int index = bagObject.find (keyPath.getComponent (i));
+            if (index < 0) {
+                return null;
+            }
+            Object found = bagObject.values[index];
+            if (! (found instanceof BagObject)) {
+                return null;
+            }
+            bagObject = (BagObject) found;
+        }
+        return bagObject;
+    }
+
     /**
      * Store an object at the requested key value. The key may be a simple name, or it may be a path
      * (with keys separated by "/") to create a hierarchical "bag-of-bags" that is indexed
@@ -185,25 +520,30 @@ public class BagObject extends Bag implements Selectable<BagObject> {
     public BagObject put (String key, Object object) {
         // convert the element to internal storage format, and don't bother with the rest if that's
         // a null value (per the docs above)
-        object = objectify (object);
-        if (object != null) {
-            // separate the key into path components, the "local" key value is the first component,
-            // so use that to conduct the search. If there is an element there, we want to get it,
-            // otherwise we want to create it.
-            String[] path = Key.split (key);
-            Pair pair = getOrAddPair (path[0]);
-            if (path.length == 1) {
-                // this was the only key in the path, so it's the end of the line, store the value
-                pair.value = object;
-            } else {
-                // this is not the leaf key, so we set the pair value to be a new BagObject if
-                // necessary, then traverse via recursion,
-                BagObject bagObject = (BagObject) pair.value;
-                if (bagObject == null) {
-                    pair.value = (bagObject = new BagObject ());
-                }
-                bagObject.put (path[1], object);
+        if (key.indexOf (PATH_SEPARATOR_CHAR) < 0) {
+            if ((object = objectify (object)) != null) {
+                // the index has to be found before the values array is read, as adding the key
+                // might grow the store
+                int index = getOrAddIndex (key);
+                values[index] = object;
             }
+            return this;
+        }
+        return put (new KeyPath (key), object);
+    }
+
+    /**
+     * Store an object at the requested path. @see #put(String, Object)
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param object The element to store.
+     * @return The BagObject, so that operations can be chained together.
+     */
+    public BagObject put (KeyPath keyPath, Object object) {
+        if (object != null) {
+            BagObject bagObject = getOrAddParent (keyPath);
+            int index = bagObject.getOrAddIndex (keyPath.getComponent (keyPath.getLength () - 1));
+            bagObject.values[index] = bagObject.objectify (object);
         }
         return this;
     }
@@ -229,56 +569,61 @@ public class BagObject extends Bag implements Selectable<BagObject> {
      * @return The BagObject, so that operations can be chained together.
      */
     public BagObject add (String key, Object object) {
-        // separate the key into path components, the "local" key value is the first component,
-        // so use that to conduct the search. If there is an element there, we want to get it,
-        // otherwise we want to create it.
-        String[] path = Key.split (key);
-        Pair pair = getOrAddPair (path[0]);
-        if (path.length == 1) {
-            // this is the end of the line, so we want to store the requested object
-            BagArray bagArray;
-            Object found = pair.value;
-            if ((object = objectify (object)) == null) {
-                if (found == null) {
-                    // 1) object is null, key does not exist - create array
-                    pair.value = (bagArray = new BagArray ());
-                } else if (found instanceof BagArray) {
-                    // 2) object is null, key exists (is array)
-                    bagArray = (BagArray) found;
-                } else {
-                    // 3) object is null, key exists (is not array) - create array, store existing value
-                    pair.value = (bagArray = new BagArray (2));
-                    bagArray.add (found);
-                }
+        if (key.indexOf (PATH_SEPARATOR_CHAR) < 0) {
+            addAt (getOrAddIndex (key), object);
+            return this;
+        }
+        return add (new KeyPath (key), object);
+    }
 
-                // and store the null value in the array
-                bagArray.add (null);
+    /**
+     * Add an object to a BagArray stored at the requested path. @see #add(String, Object)
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param object The element to store.
+     * @return The BagObject, so that operations can be chained together.
+     */
+    public BagObject add (KeyPath keyPath, Object object) {
+        BagObject bagObject = getOrAddParent (keyPath);
+        bagObject.addAt (bagObject.getOrAddIndex (keyPath.getComponent (keyPath.getLength () - 1)), object);
+        return this;
+    }
+
+    private void addAt (int index, Object object) {
+        // this is the end of the line, so we want to store the requested object
+        BagArray bagArray;
+        Object found = values[index];
+        if ((object = objectify (object)) == null) {
+            if (found == null) {
+                // 1) object is null, key does not exist - create array
+                values[index] = hold (bagArray = new BagArray ().setNativeValues (nativeValues));
+            } else if (found instanceof BagArray) {
+                // 2) object is null, key exists (is array)
+                bagArray = (BagArray) found;
             } else {
-                if (found == null) {
-                    // 4) object is not null, key does not exist - store as bare value
-                    pair.value = object;
-                } else {
-                    if (found instanceof BagArray) {
-                        // 5) object is not null, key exists (is array) - add new value to array
-                        bagArray = (BagArray) found;
-                    } else {
-                        // 6) object is not null, key exists (is not array) - create array, store existing value, store new value
-                        pair.value = (bagArray = new BagArray (2));
-                        bagArray.add (found);
-                    }
-                    bagArray.add (object);
-                }
+                // 3) object is null, key exists (is not array) - create array, store existing value
+                values[index] = hold (bagArray = new BagArray (2).setNativeValues (nativeValues));
+                bagArray.add (found);
             }
+
+            // and store the null value in the array
+            bagArray.add (null);
         } else {
-            // this is not the leaf key, so we set the pair value to be a new BagObject if
-            // necessary, then traverse via recursion,
-            BagObject bagObject = (BagObject) pair.value;
-            if (bagObject == null) {
-                pair.value = (bagObject = new BagObject ());
+            if (found == null) {
+                // 4) object is not null, key does not exist - store as bare value
+                values[index] = object;
+            } else {
+                if (found instanceof BagArray) {
+                    // 5) object is not null, key exists (is array) - add new value to array
+                    bagArray = (BagArray) found;
+                } else {
+                    // 6) object is not null, key exists (is not array) - create array, store existing value, store new value
+                    values[index] = hold (bagArray = new BagArray (2).setNativeValues (nativeValues));
+                    bagArray.add (found);
+                }
+                bagArray.add (object);
             }
-            bagObject.add (path[1], object);
         }
-        return this;
     }
 
     /**
@@ -296,19 +641,60 @@ public class BagObject extends Bag implements Selectable<BagObject> {
      * @return The BagObject, so that operations can be chained together.
      */
     public BagObject remove (String key) {
-        String[] path = Key.split (key);
-        int index = binarySearch (path[0]);
+        if (key.indexOf (PATH_SEPARATOR_CHAR) < 0) {
+            removeKey (key);
+            return this;
+        }
+        return remove (new KeyPath (key));
+    }
+
+    /**
+     * Remove an object stored at the requested path. @see #remove(String)
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The BagObject, so that operations can be chained together.
+     */
+    public BagObject remove (KeyPath keyPath) {
+        BagObject bagObject = getParent (keyPath);
+        if (bagObject != null) {
+            bagObject.removeKey (keyPath.getComponent (keyPath.getLength () - 1));
+        }
+        return this;
+    }
+
+    private void removeKey (String key) {
+        unshare ();
+        changed ();
+        int index = find (key);
         if (index >= 0) {
-            if (path.length == 1) {
+            if (table != null) {
+                removeHashed (index);
+            } else {
                 int gapIndex = index + 1;
-                System.arraycopy (container, gapIndex, container, index, count - gapIndex);
+                System.arraycopy (keys, gapIndex, keys, index, count - gapIndex);
+                System.arraycopy (values, gapIndex, values, index, count - gapIndex);
                 --count;
-            } else {
-                BagObject found = (BagObject) container[index].value;
-                found.remove (path[1]);
+                keys[count] = null;
+                values[count] = null;
             }
         }
-        return this;
+    }
+
+    private void removeHashed (int index) {
+        // the order of the entries doesn't matter in hashed storage, so the last entry is moved
+        // into the gap and its slot updated to point at its new position
+        deleteSlot (findSlot (keys[index], hashes[index]));
+        int last = count - 1;
+        if (index != last) {
+            table[findSlot (keys[last], hashes[last])] = index + 1;
+            keys[index] = keys[last];
+            values[index] = values[last];
+            hashes[index] = hashes[last];
+        }
+        keys[last] = null;
+        values[last] = null;
+        count = last;
+        sortedKeys = null;
     }
 
     /**
@@ -321,16 +707,19 @@ public class BagObject extends Bag implements Selectable<BagObject> {
      * values are not stored (design decision), so this equivalent to checking for null.
      */
     public boolean has (String key) {
-        String[] path = Key.split (key);
-        int index = binarySearch (path[0]);
-        try {
-            return (index >= 0) &&
-                    ((path.length == 1) ||
-                            ((BagObject) container[index].value).has (path[1]));
-        } catch (ClassCastException classCastException) {
-            // if a requested value is not a BagObject - this should be an exceptional case
-            return false;
-        }
+        return (key.indexOf (PATH_SEPARATOR_CHAR) < 0) ? (find (key) >= 0) : has (new KeyPath (key));
+    }
+
+    /**
+     * Return whether or not the requested path is present. @see #has(String)
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return A boolean value, true if the path is present.
+     */
+    public boolean has (KeyPath keyPath) {
+        // if a requested value along the path is not a BagObject, the path is not present
+        BagObject bagObject = getParent (keyPath);
+        return (bagObject != null) && (bagObject.find (keyPath.getComponent (keyPath.getLength () - 1)) >= 0);
     }
 
     /**
@@ -340,11 +729,60 @@ public class BagObject extends Bag implements Selectable<BagObject> {
      * @return The keys in the underlying map as an array of Strings.
      */
     public String[] keys () {
-        String[] keys = new String[count];
+        if (table != null) {
+            // hashed storage is not in key order, so the sorted keys are computed once and kept
+            // until the keys change
+            if (sortedKeys == null) {
+                sortedKeys = collectKeys ();
+                Arrays.sort (sortedKeys);
+            }
+            return sortedKeys.clone ();
+        }
+        return collectKeys ();
+    }
+
+    private String[] collectKeys () {
+        return Arrays.copyOf (keys, count);
+    }
+
+    @Override
+    int hashValues (boolean bags) {
+        // the entries are summed, so the hash doesn't depend on the order they are stored in
+        int hash = 0;
         for (int i = 0; i < count; ++i) {
-            keys[i] = container[i].key;
+            if ((values[i] instanceof Bag) == bags) {
+                hash += keys[i].hashCode () ^ hashValue (values[i]);
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    boolean hasBags () {
+        for (int i = 0; i < count; ++i) {
+            if (values[i] instanceof Bag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    boolean equalValues (Bag bag) {
+        BagObject bagObject = (BagObject) bag;
+        if (count != bagObject.count) {
+            return false;
+        }
+
+        // sorted storage lines up entry for entry, hashed storage has to look the keys up
+        boolean sorted = (table == null) && (bagObject.table == null);
+        for (int i = 0; i < count; ++i) {
+            int index = sorted ? i : bagObject.find (keys[i]);
+            if ((index < 0) || (! keys[i].equals (bagObject.keys[index])) || (! equalValue (values[i], bagObject.values[index]))) {
+                return false;
+            }
         }
-        return keys;
+        return true;
     }
 
     @Override
@@ -355,7 +793,7 @@ public class BagObject extends Bag implements Selectable<BagObject> {
     @Override
     public BagObject select (SelectKey selectKey) {
         if (selectKey != null) {
-            BagObject bagObject = new BagObject ();
+            BagObject bagObject = new BagObject ().setNativeValues (nativeValues);
             String[] keys = keys ();
             for (String key : keys) {
                 // XXX I need to think about this a bit, so that the selection keys can hoist
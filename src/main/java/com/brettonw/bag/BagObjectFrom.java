@@ -52,8 +52,13 @@ public class BagObjectFrom {
 
     static public BagObject file (File file, String mimeType, Supplier<BagObject> fail) {
         try {
-            SourceAdapter sourceAdapter = new SourceAdapterReader(file, mimeType);
-            return FormatReader.readBagObject (sourceAdapter);
+            // large files are mapped and parsed in place, smaller ones are streamed
+            if (SourceAdapterMapped.shouldMap (file)) {
+                return FormatReader.readBagObject (new SourceAdapterMapped (file, mimeType));
+            }
+            try (SourceAdapterStream sourceAdapter = new SourceAdapterStream (file, mimeType)) {
+                return FormatReader.readBagObject (sourceAdapter);
+            }
         } catch (Exception exception) {
             log.error (exception);
         }
@@ -98,8 +103,9 @@ public class BagObjectFrom {
 
     static public BagObject inputStream (InputStream inputStream, String mimeType, Supplier<BagObject> fail) {
         try {
-            SourceAdapter sourceAdapter = new SourceAdapterReader(inputStream, mimeType);
-            return FormatReader.readBagObject (sourceAdapter);
+            try (SourceAdapterStream sourceAdapter = new SourceAdapterStream (inputStream, mimeType)) {
+                return FormatReader.readBagObject (sourceAdapter);
+            }
         } catch (Exception exception) {
             log.error (exception);
         }
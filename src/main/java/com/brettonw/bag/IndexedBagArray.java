@@ -0,0 +1,337 @@
+package com.brettonw.bag;
+
+import com.brettonw.bag.expr.And;
+import com.brettonw.bag.expr.BooleanExpr;
+import com.brettonw.bag.expr.Equality;
+import com.brettonw.bag.expr.Expr;
+import com.brettonw.bag.expr.Exprs;
+import com.brettonw.bag.expr.Key;
+import com.brettonw.bag.expr.Or;
+import com.brettonw.bag.expr.Value;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * An IndexedBagArray is a collection of Bags, stored in a BagArray, that keeps indexes on chosen
+ * key paths so repeated lookups don't have to scan every element. A hash index answers equality
+ * lookups, and a sorted index (ordered according to the SortType of a SortKey) answers range
+ * lookups. Queries with a BooleanExpr use the indexes wherever the expression contains an
+ * Equality between an indexed key and a value, and only evaluate the full expression on the
+ * elements the index selects, so the results are exactly those of BagArray.query.
+ * <p>
+ * The collection is append-only, and the indexes are kept up to date as elements are added. If
+ * an element is changed after it has been added, call reindex.
+ */
+public class IndexedBagArray {
+    private final BagArray bagArray;
+    private final Map<String, HashIndex> hashIndexes = new HashMap<> ();
+    private final Map<String, SortedIndex<?>> sortedIndexes = new HashMap<> ();
+
+    public IndexedBagArray () {
+        this (new BagArray ());
+    }
+
+    /**
+     * @param bagArray the initial elements. The elements themselves are shared with bagArray, not
+     *                 copied, so if any of them is changed in place afterwards, call reindex.
+     */
+    public IndexedBagArray (BagArray bagArray) {
+        this.bagArray = new BagArray (bagArray.getCount ()).setNativeValues (bagArray.nativeValues);
+        for (Object object : bagArray) {
+            this.bagArray.add (object);
+        }
+    }
+
+    // the form a value is indexed in, the same form an Equality compares it in. values that are
+    // themselves bags are not indexed, because a Value never equals them.
+    private static final Object NOT_INDEXED = new Object ();
+
+    private static Object indexValue (Object element, KeyPath keyPath) {
+        Object value = (element instanceof Bag) ? ((Bag) element).getObject (keyPath) : null;
+        return (value instanceof Bag) ? NOT_INDEXED : Equality.normalize (value);
+    }
+
+    // equality index, mapping each value to the (ascending) positions of the elements that have it
+    private static class HashIndex {
+        final KeyPath keyPath;
+        final Map<Object, List<Integer>> positions = new HashMap<> ();
+
+        HashIndex (String key) {
+            keyPath = new KeyPath (key);
+        }
+
+        void add (Object element, int position) {
+            Object value = indexValue (element, keyPath);
+            if (value != NOT_INDEXED) {
+                positions.computeIfAbsent (value, v -> new ArrayList<> ()).add (position);
+            }
+        }
+
+        List<Integer> get (Object value) {
+            List<Integer> found = positions.get (value);
+            return (found != null) ? found : new ArrayList<> ();
+        }
+    }
+
+    // range index, mapping each value (as a Double or a String, according to the sort type) to
+    // the positions of the elements that have it. elements without a usable value are left out.
+    private static abstract class SortedIndex<KeyType extends Comparable<KeyType>> {
+        final KeyPath keyPath;
+        final SortType type;
+        final TreeMap<KeyType, List<Integer>> positions = new TreeMap<> ();
+
+        SortedIndex (SortKey sortKey) {
+            keyPath = new KeyPath (sortKey.getKey ());
+            type = sortKey.getType ();
+        }
+
+        // the key for a (non-null) value, or null if it can't be ordered
+        abstract KeyType toKey (Object value);
+
+        KeyType key (Object value) {
+            return ((value == null) || (value == NOT_INDEXED)) ? null : toKey (value);
+        }
+
+        void add (Object element, int position) {
+            KeyType key = key (indexValue (element, keyPath));
+            if (key != null) {
+                positions.computeIfAbsent (key, k -> new ArrayList<> ()).add (position);
+            }
+        }
+
+        List<Integer> range (Object low, Object high) {
+            KeyType lowKey = key (low);
+            KeyType highKey = key (high);
+            NavigableMap<KeyType, List<Integer>> range = positions;
+            if (lowKey != null) {
+                range = range.tailMap (lowKey, true);
+            }
+            if (highKey != null) {
+                range = range.headMap (highKey, true);
+            }
+            List<Integer> found = new ArrayList<> ();
+            for (List<Integer> list : range.values ()) {
+                found.addAll (list);
+            }
+            return found;
+        }
+    }
+
+    private static SortedIndex<?> sortedIndex (SortKey sortKey) {
+        if (sortKey.getType () == SortType.NUMERIC) {
+            return new SortedIndex<Double> (sortKey) {
+                @Override
+                Double toKey (Object value) {
+                    try {
+                        double number = Double.parseDouble (value.toString ());
+                        return Double.isNaN (number) ? null : number;
+                    } catch (NumberFormatException exception) {
+                        return null;
+                    }
+                }
+            };
+        }
+        return new SortedIndex<String> (sortKey) {
+            @Override
+            String toKey (Object value) {
+                return value.toString ();
+            }
+        };
+    }
+
+    /**
+     * add a hash index on a key path, for equality lookups
+     * @param key
+     * @return this, for chaining
+     */
+    public IndexedBagArray addHashIndex (String key) {
+        HashIndex hashIndex = new HashIndex (key);
+        for (int i = 0, count = bagArray.getCount (); i < count; ++i) {
+            hashIndex.add (bagArray.getObject (i), i);
+        }
+        hashIndexes.put (key, hashIndex);
+        return this;
+    }
+
+    /**
+     * add a sorted index on a key path, for range lookups
+     * @param sortKey the key path, and whether its values are compared alphabetically or
+     *                numerically (the order doesn't matter)
+     * @return this, for chaining
+     */
+    public IndexedBagArray addSortedIndex (SortKey sortKey) {
+        SortedIndex<?> sortedIndex = sortedIndex (sortKey);
+        for (int i = 0, count = bagArray.getCount (); i < count; ++i) {
+            sortedIndex.add (bagArray.getObject (i), i);
+        }
+        sortedIndexes.put (sortKey.getKey (), sortedIndex);
+        return this;
+    }
+
+    /**
+     * rebuild all of the indexes, after elements have been changed in place
+     * @return this, for chaining
+     */
+    public IndexedBagArray reindex () {
+        List<String> hashKeys = new ArrayList<> (hashIndexes.keySet ());
+        List<SortedIndex<?>> sorted = new ArrayList<> (sortedIndexes.values ());
+        hashIndexes.clear ();
+        sortedIndexes.clear ();
+        for (String key : hashKeys) {
+            addHashIndex (key);
+        }
+        for (SortedIndex<?> sortedIndex : sorted) {
+            addSortedIndex (new SortKey (sortedIndex.keyPath.toString (), sortedIndex.type, SortKey.DEFAULT_ORDER));
+        }
+        return this;
+    }
+
+    /**
+     * @param bag the element to add, and index
+     * @return this, for chaining
+     */
+    public IndexedBagArray add (Bag bag) {
+        int position = bagArray.getCount ();
+        bagArray.add (bag);
+        for (HashIndex hashIndex : hashIndexes.values ()) {
+            hashIndex.add (bag, position);
+        }
+        for (SortedIndex<?> sortedIndex : sortedIndexes.values ()) {
+            sortedIndex.add (bag, position);
+        }
+        return this;
+    }
+
+    public int getCount () {
+        return bagArray.getCount ();
+    }
+
+    public Object getObject (int index) {
+        return bagArray.getObject (index);
+    }
+
+    /**
+     * @return a copy of the elements, as a BagArray
+     */
+    public BagArray toBagArray () {
+        return bagArray.subset (0, bagArray.getCount ());
+    }
+
+    private BagArray elements (Collection<Integer> positions) {
+        BagArray found = new BagArray (positions.size ()).setNativeValues (bagArray.nativeValues);
+        for (int position : positions) {
+            found.add (bagArray.getObject (position));
+        }
+        return found;
+    }
+
+    /**
+     * the elements where the value at a key path equals a value, using a hash index on the key if
+     * there is one (or an alphabetic sorted index), and a scan otherwise
+     * @param key
+     * @param value
+     * @return the matching elements, in the order they were added
+     */
+    public BagArray find (String key, Object value) {
+        List<Integer> positions = lookup (key, Equality.normalize (value));
+        if (positions != null) {
+            return elements (positions);
+        }
+        return query (Exprs.equality (key, value), null);
+    }
+
+    /**
+     * the elements where the value at a key path is in a range, using the sorted index on the key.
+     * @param key a key with a sorted index
+     * @param low the lowest value to include, or null for no lower bound
+     * @param high the highest value to include, or null for no upper bound
+     * @return the elements in the range ordered by their value (elements with the same value are
+     * in the order they were added), or null if there is no sorted index on the key
+     */
+    public BagArray range (String key, Object low, Object high) {
+        SortedIndex<?> sortedIndex = sortedIndexes.get (key);
+        if (sortedIndex != null) {
+            return elements (sortedIndex.range (Equality.normalize (low), Equality.normalize (high)));
+        }
+        return null;
+    }
+
+    // the positions of the elements with a value at the key, or null if there is no index to use
+    private List<Integer> lookup (String key, Object value) {
+        HashIndex hashIndex = hashIndexes.get (key);
+        if (hashIndex != null) {
+            return hashIndex.get (value);
+        }
+        SortedIndex<?> sortedIndex = sortedIndexes.get (key);
+        if ((sortedIndex != null) && (sortedIndex.type == SortType.ALPHABETIC) && (value instanceof String)) {
+            List<Integer> found = sortedIndex.positions.get (value);
+            return (found != null) ? found : new ArrayList<> ();
+        }
+        return null;
+    }
+
+    // the query planner, returns the positions of a superset of the elements that match the
+    // expression, in ascending order, or null if the indexes can't narrow it down
+    private Collection<Integer> plan (BooleanExpr match) {
+        if (match instanceof Equality) {
+            Expr left = ((Equality) match).getLeft ();
+            Expr right = ((Equality) match).getRight ();
+            if ((left instanceof Key) && (right instanceof Value)) {
+                return lookup (((Key) left).getKey (), ((Value) right).getValue ());
+            }
+            if ((left instanceof Value) && (right instanceof Key)) {
+                return lookup (((Key) right).getKey (), ((Value) left).getValue ());
+            }
+        } else if (match instanceof And) {
+            // either side narrows the search, so use the smaller
+            Collection<Integer> left = plan (((And) match).getLeft ());
+            Collection<Integer> right = plan (((And) match).getRight ());
+            if ((left == null) || ((right != null) && (right.size () < left.size ()))) {
+                return right;
+            }
+            return left;
+        } else if (match instanceof Or) {
+            // both sides have to be narrowed, and the union is the search
+            Collection<Integer> left = plan (((Or) match).getLeft ());
+            Collection<Integer> right = plan (((Or) match).getRight ());
+            if ((left != null) && (right != null)) {
+                TreeSet<Integer> union = new TreeSet<> (left);
+                union.addAll (right);
+                return union;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * the same as BagArray.query, but using the indexes to avoid looking at every element when
+     * the match expression allows it
+     * @param match a BooleanExpr describing the match criteria
+     * @param selectKey a SelectKey with the values to extract
+     * @return
+     */
+    public BagArray query (BooleanExpr match, SelectKey selectKey) {
+        Collection<Integer> positions = (match != null) ? plan (match) : null;
+        if (positions == null) {
+            return bagArray.query (match, selectKey);
+        }
+
+        Predicate<Bag> predicate = match.getPredicate ();
+        BagArray found = new BagArray ().setNativeValues (bagArray.nativeValues);
+        for (int position : positions) {
+            Object object = BagArray.query (bagArray.getObject (position), predicate, selectKey);
+            if (object != null) {
+                found.add (object);
+            }
+        }
+        return found;
+    }
+}
@@ -21,8 +21,4 @@ public final class Key {
         }
         return stringBuilder.toString ();
     }
-
-    static String[] split (String key) {
-        return key.split (BagObject.PATH_SEPARATOR, 2);
-    }
 }
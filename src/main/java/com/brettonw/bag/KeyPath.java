@@ -0,0 +1,102 @@
+package com.brettonw.bag;
+
+/**
+ * A precompiled path for indexing into a "bag-of-bags". Building the KeyPath splits the path
+ * into its components (and parses the components that can be used as BagArray indices) once, so
+ * that using it repeatedly doesn't allocate anything. KeyPaths are immutable, and can be shared
+ * freely.
+ */
+public final class KeyPath {
+    // markers for components that aren't a plain index
+    private static final int LAST = Integer.MIN_VALUE;
+    private static final int NOT_AN_INDEX = Integer.MIN_VALUE + 1;
+    private static final int OUT_OF_RANGE = -1;
+
+    private final String path;
+    private final String[] components;
+    private final int[] indices;
+
+    /**
+     * @param path a string value used to index an element, using "/" as separators, for
+     *             example: "com/brettonw/bag/key" or "#last/completed"
+     */
+    public KeyPath (String path) {
+        this.path = path;
+
+        // count the components, then split the path without using a regular expression
+        int length = 1;
+        for (int i = path.indexOf (BagObject.PATH_SEPARATOR_CHAR); i >= 0; i = path.indexOf (BagObject.PATH_SEPARATOR_CHAR, i + 1)) {
+            ++length;
+        }
+        components = new String[length];
+        indices = new int[length];
+        for (int i = 0, start = 0; i < length; ++i) {
+            int end = path.indexOf (BagObject.PATH_SEPARATOR_CHAR, start);
+            if (end < 0) {
+                end = path.length ();
+            }
+            components[i] = path.substring (start, end);
+            indices[i] = toIndex (components[i]);
+            start = end + 1;
+        }
+    }
+
+    private static int toIndex (String component) {
+        switch (component) {
+            case "#first": return 0;
+            case "#last": return LAST;
+            default:
+                try {
+                    int index = Integer.parseInt (component);
+                    return (index >= 0) ? index : OUT_OF_RANGE;
+                } catch (NumberFormatException exception) {
+                    return NOT_AN_INDEX;
+                }
+        }
+    }
+
+    /**
+     * @return the number of components in the path
+     */
+    public int getLength () {
+        return components.length;
+    }
+
+    /**
+     * @param level which component of the path, starting at 0
+     * @return the component
+     */
+    public String getComponent (int level) {
+        return components[level];
+    }
+
+    boolean isLast (int level) {
+        return level == (components.length - 1);
+    }
+
+    // resolve the component as an index into an array with "count" elements
+    int getIndex (int level, int count) {
+        int index = indices[level];
+        switch (index) {
+            case LAST: return count - 1;
+            // fail the same way an uncompiled path would
+            case NOT_AN_INDEX: return Integer.parseInt (components[level]);
+            default: return index;
+        }
+    }
+
+    @Override
+    public boolean equals (Object object) {
+        return (object instanceof KeyPath) && path.equals (((KeyPath) object).path);
+    }
+
+    @Override
+    public int hashCode () {
+        return path.hashCode ();
+    }
+
+    @Override
+    public String toString () {
+        return path;
+    }
+}
@@ -4,8 +4,12 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import sun.reflect.ReflectionFactory;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Serializer {
     private static final Logger log = LogManager.getLogger (Serializer.class);
@@ -27,7 +31,13 @@ public class Serializer {
     static final String SERIALIZER_VERSION_2 = "2";
     static final String SERIALIZER_VERSION_3 = "3";
     static final String SERIALIZER_VERSION_4 = "4";
-    static final String SERIALIZER_VERSION = SERIALIZER_VERSION_4;
+    static final String SERIALIZER_VERSION_5 = "5";
+    static final String SERIALIZER_VERSION = SERIALIZER_VERSION_5;
+
+    // version 5 only changed the encoding of arrays of primitive types (they are stored flat, see
+    // serializeArrayType), and the deserializer recognizes both encodings, so it still reads
+    // version 4
+    private static final Set<String> READABLE_VERSIONS = new HashSet<> (Arrays.asList (SERIALIZER_VERSION_4, SERIALIZER_VERSION_5));
 
     // flags to clarify whether or not to include/expect version
     private static final boolean WITH_VERSION = true;
@@ -68,6 +78,10 @@ public class Serializer {
     }
     */
 
+    // types are always resolved through the same class loader, so the result for any given name
+    // never changes, and we only have to ask the class loader once
+    private static final Map<String, Class> CLASSES = new ConcurrentHashMap<> ();
+
     private static Class getClass (String typeString) throws ClassNotFoundException {
         /*
         ClassLoader threadContextClassLoader = Thread.currentThread ().getContextClassLoader ();
@@ -75,7 +89,12 @@ public class Serializer {
         ClassLoader myClassLoader = Serializer.class.getClassLoader ();
         ClassLoader[] classLoaderCallStack = ClassLoaderResolver.getCallStack ();
         */
-        return Serializer.class.getClassLoader ().loadClass (typeString);
+        Class type = CLASSES.get (typeString);
+        if (type == null) {
+            type = Serializer.class.getClassLoader ().loadClass (typeString);
+            CLASSES.put (typeString, type);
+        }
+        return type;
     }
 
     // different types of objects are handled differently by the serializer, this is roughly how we
@@ -107,7 +126,7 @@ public class Serializer {
         return (boxedType != null) ? boxedType : type;
     }
 
-    private static SerializationType serializationType (Class type) {
+    private static SerializationType computeSerializationType (Class type) {
         if (type.isPrimitive () || isBoxedPrimitive (type)) return SerializationType.PRIMITIVE;
         if (type.isEnum ()) return SerializationType.ENUM;
         if (type.isArray ()) return SerializationType.ARRAY;
@@ -120,6 +139,10 @@ public class Serializer {
         return SerializationType.JAVA_OBJECT;
     }
 
+    private static SerializationType serializationType (Class type) {
+        return TYPE_INFO.get (type).serializationType;
+    }
+
     private static SerializationType serializationType (String typeString) throws ClassNotFoundException {
         return  (typeString.charAt (0) == '[')
                 ?  SerializationType.ARRAY
@@ -137,36 +160,245 @@ public class Serializer {
         return fields;
     }
 
+    // accessors are generated as method handles adapted to Object types, so they can be invoked
+    // exactly without knowing the actual types at the call site
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup ();
+    private static final MethodType GETTER_TYPE = MethodType.methodType (Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType (void.class, Object.class, Object.class);
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType (Object.class);
+    private static final MethodType ARRAY_GETTER_TYPE = MethodType.methodType (Object.class, Object.class, int.class);
+    private static final MethodType ARRAY_SETTER_TYPE = MethodType.methodType (void.class, Object.class, int.class, Object.class);
+
+    // the adapted handles can only throw unchecked exceptions (like a ClassCastException for a
+    // value of the wrong type), so anything else is unexpected
+    private static RuntimeException rethrow (Throwable throwable) {
+        if (throwable instanceof RuntimeException) {
+            return (RuntimeException) throwable;
+        }
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+        return new UndeclaredThrowableException (throwable);
+    }
+
+    // what the serializer needs to know about a field, gathered once per field
+    private static final class FieldInfo {
+        final Field field;
+        final String name;
+        final String typeName;
+        final Class boxedType;
+        final boolean isStatic;
+
+        // direct accessors for instance fields, or null if access was denied, in which case we
+        // fall back to reflection
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        FieldInfo (Field field) {
+            this.field = field;
+            name = field.getName ();
+            typeName = field.getType ().getName ();
+            boxedType = getBoxedType (field.getType ());
+            isStatic = Modifier.isStatic (field.getModifiers ());
+
+            // force accessibility for serialization - this is an issue with the reflection API
+            // that we want to step around because serialization is assumed to be the primary
+            // goal, as opposed to viewing a way to workaround an API that needs to be over-
+            // ridden. This should prevent the IllegalAccessException from ever happening. the
+            // Field object is our own copy, so this doesn't leak out to anyone else.
+            try {
+                field.setAccessible (true);
+            } catch (RuntimeException exception) {
+                // some platform types won't allow it, we only find out if we try to use them
+                log.debug (exception);
+            }
+
+            MethodHandle getter = null;
+            MethodHandle setter = null;
+            if (! isStatic) {
+                try {
+                    getter = LOOKUP.unreflectGetter (field).asType (GETTER_TYPE);
+                    setter = LOOKUP.unreflectSetter (field).asType (SETTER_TYPE);
+                } catch (IllegalAccessException exception) {
+                    // final fields can be read but not written through a handle, so keep the
+                    // getter if we got that far
+                    log.debug (exception);
+                }
+            }
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        Object get (Object target) throws IllegalAccessException {
+            if (getter != null) {
+                try {
+                    return (Object) getter.invokeExact (target);
+                } catch (Throwable throwable) {
+                    throw rethrow (throwable);
+                }
+            }
+            return field.get (target);
+        }
+
+        void set (Object target, Object value) throws IllegalAccessException {
+            if (setter != null) {
+                try {
+                    setter.invokeExact (target, value);
+                    return;
+                } catch (Throwable throwable) {
+                    throw rethrow (throwable);
+                }
+            }
+            field.set (target, value);
+        }
+    }
+
+    // what the serializer needs to know about a type, gathered once per type. the reflection work
+    // for fields and constructors is done lazily, as most types never need it. racing threads
+    // might both do that work, but they will compute the same answer.
+    private static final class TypeInfo {
+        final Class type;
+        final SerializationType serializationType;
+        private volatile FieldInfo[] fields;
+        private volatile Constructor constructor;
+        private volatile MethodHandle constructorHandle;
+        private volatile Constructor primitiveConstructor;
+        private volatile MethodHandle arrayGetter;
+        private volatile MethodHandle arraySetter;
+
+        TypeInfo (Class type) {
+            this.type = type;
+            serializationType = computeSerializationType (type);
+        }
+
+        FieldInfo[] getFields () {
+            FieldInfo[] fields = this.fields;
+            if (fields == null) {
+                // gather all of the fields declared; public, private, static, etc.
+                Set<Field> fieldSet = getAllFields (new LinkedHashSet<> (), type);
+                fields = new FieldInfo[fieldSet.size ()];
+                int i = 0;
+                for (Field field : fieldSet) {
+                    fields[i++] = new FieldInfo (field);
+                }
+                this.fields = fields;
+            }
+            return fields;
+        }
+
+        Constructor getConstructor () throws NoSuchMethodException {
+            Constructor constructor = this.constructor;
+            if (constructor == null) {
+                // try to get a default constructor, and a direct handle to it
+                try {
+                    constructor = type.getConstructor ();
+                    log.debug ("Instantiate " + type.getName () + " using default constructor...");
+                    try {
+                        constructor.setAccessible (true);
+                        constructorHandle = LOOKUP.unreflectConstructor (constructor).asType (CONSTRUCTOR_TYPE);
+                    } catch (IllegalAccessException | RuntimeException exception) {
+                        // we'll just use the constructor reflectively
+                        log.debug (exception);
+                    }
+                } catch (NoSuchMethodException exception) {
+                    // skip this, user the serialization interface
+                }
+
+                // try to get a constructor using the serialization interface, this should
+                // effectively create the object without any initialization at all.
+                if (constructor == null) {
+                    ReflectionFactory reflectionFactory = ReflectionFactory.getReflectionFactory ();
+                    Constructor objectConstructor = Object.class.getDeclaredConstructor ();
+                    constructor = reflectionFactory.newConstructorForSerialization (type, objectConstructor);
+                    log.debug ("Instantiate " + type.getName () + " using serialization constructor...");
+                }
+                this.constructor = constructor;
+            }
+            return constructor;
+        }
+
+        Object newInstance () throws NoSuchMethodException, IllegalAccessException, InstantiationException, InvocationTargetException {
+            Constructor constructor = getConstructor ();
+            MethodHandle constructorHandle = this.constructorHandle;
+            if (constructorHandle != null) {
+                try {
+                    return constructorHandle.invokeExact ();
+                } catch (Throwable throwable) {
+                    // report exceptions from the constructor itself the way reflection would
+                    throw new InvocationTargetException (throwable);
+                }
+            }
+            return constructor.newInstance ();
+        }
+
+        Constructor getPrimitiveConstructor () throws NoSuchMethodException {
+            Constructor primitiveConstructor = this.primitiveConstructor;
+            if (primitiveConstructor == null) {
+                // Character types don't have a constructor from a String, so we have to handle that
+                // as a special case. Fingers crossed we don't find any others
+                primitiveConstructor = type.isAssignableFrom (Character.class)
+                        ? type.getConstructor (char.class)
+                        : type.getConstructor (String.class);
+                this.primitiveConstructor = primitiveConstructor;
+            }
+            return primitiveConstructor;
+        }
+
+        // element accessors for array types, these are always available
+        Object getElement (Object array, int index) {
+            MethodHandle arrayGetter = this.arrayGetter;
+            if (arrayGetter == null) {
+                this.arrayGetter = arrayGetter = MethodHandles.arrayElementGetter (type).asType (ARRAY_GETTER_TYPE);
+            }
+            try {
+                return arrayGetter.invokeExact (array, index);
+            } catch (Throwable throwable) {
+                throw rethrow (throwable);
+            }
+        }
+
+        void setElement (Object array, int index, Object value) {
+            MethodHandle arraySetter = this.arraySetter;
+            if (arraySetter == null) {
+                this.arraySetter = arraySetter = MethodHandles.arrayElementSetter (type).asType (ARRAY_SETTER_TYPE);
+            }
+            try {
+                arraySetter.invokeExact (array, index, value);
+            } catch (Throwable throwable) {
+                throw rethrow (throwable);
+            }
+        }
+    }
+
+    private static final ClassValue<TypeInfo> TYPE_INFO = new ClassValue<TypeInfo> () {
+        @Override
+        protected TypeInfo computeValue (Class<?> type) {
+            return new TypeInfo (type);
+        }
+    };
+
     private static BagObject serializeJavaObjectType (Object object, Class type) {
         // this bag object will hold the value(s) of the fields
         BagObject bagObject = new BagObject ();
 
-        // gather all of the fields declared; public, private, static, etc., then loop over them
-        Set<Field> fieldSet = getAllFields (new HashSet<> (), type);
-        for (Field field : fieldSet) {
+        // loop over all of the fields declared; public, private, static, etc. (accessibility was
+        // forced when the fields were gathered)
+        for (FieldInfo fieldInfo : TYPE_INFO.get (type).getFields ()) {
             // check if the field is static, we don't want to serialize any static values, as this
             // leads to recursion
-            if (! Modifier.isStatic (field.getModifiers ())) {
-                // force accessibility for serialization - this is an issue with the reflection API
-                // that we want to step around because serialization is assumed to be the primary
-                // goal, as opposed to viewing a way to workaround an API that needs to be over-
-                // ridden. This should prevent the IllegalAccessException from ever happening.
-                boolean accessible = field.isAccessible ();
-                field.setAccessible (true);
-
+            if (! fieldInfo.isStatic) {
                 // get the name and type, and get the value to encode
                 try {
                     // only serialize this field if it has a value
-                    Object fieldObject = field.get (object);
+                    Object fieldObject = fieldInfo.get (object);
                     if (fieldObject != null) {
                         // if the type of the object is not a subclass of the field type, serialize it
                         // directly - otherwise, serialize with type
                         Class fieldObjectType = getBoxedType (fieldObject.getClass ());
-                        Class fieldType = getBoxedType (field.getType ());
-                        if (fieldObjectType.isAssignableFrom (fieldType)) {
-                            bagObject.put (field.getName (), serialize (fieldObject));
+                        if (fieldObjectType.isAssignableFrom (fieldInfo.boxedType)) {
+                            bagObject.put (fieldInfo.name, serialize (fieldObject));
                         } else {
-                            bagObject.put (field.getName (), serializeWithType (fieldObject, WITHOUT_VERSION));
+                            bagObject.put (fieldInfo.name, serializeWithType (fieldObject, WITHOUT_VERSION));
                         }
                     }
                 } catch (IllegalAccessException exception) {
@@ -174,22 +406,50 @@ public class Serializer {
                     // purpose of measuring coverage
                     log.debug (exception);
                 }
-
-                // restore the accessibility - not 100% sure this is necessary, better be safe than
-                // sorry, right?
-                field.setAccessible (accessible);
             }
         }
         return bagObject;
     }
 
+    // arrays of primitives, boxed primitives, and strings can only hold values of exactly that
+    // type, so they don't need every element wrapped with its type
+    private static boolean isFlatArrayType (Class arrayType) {
+        Class componentType = arrayType.getComponentType ();
+        return (componentType != null) && (serializationType (componentType) == SerializationType.PRIMITIVE);
+    }
+
+    private static BagArray serializeFlatArrayType (Object object, int length) {
+        // the values are stored directly, with the common types copied without going through
+        // the element accessor
+        BagArray bagArray = new BagArray (length);
+        if (object instanceof int[]) {
+            for (int value : (int[]) object) bagArray.add (value);
+        } else if (object instanceof long[]) {
+            for (long value : (long[]) object) bagArray.add (value);
+        } else if (object instanceof double[]) {
+            for (double value : (double[]) object) bagArray.add (value);
+        } else if (object instanceof String[]) {
+            for (String value : (String[]) object) bagArray.add (value);
+        } else {
+            TypeInfo typeInfo = TYPE_INFO.get (object.getClass ());
+            for (int i = 0; i < length; ++i) {
+                bagArray.add (typeInfo.getElement (object, i));
+            }
+        }
+        return bagArray;
+    }
+
     private static BagArray serializeArrayType (Object object) {
         int length = Array.getLength (object);
+        if (isFlatArrayType (object.getClass ())) {
+            return serializeFlatArrayType (object, length);
+        }
         BagArray bagArray = new BagArray (length);
+        TypeInfo typeInfo = TYPE_INFO.get (object.getClass ());
         for (int i = 0; i < length; ++i) {
             // serialized containers could use base classes as the container type specifier, so we
             // have to instantiate each object individually
-            bagArray.add (serializeWithType (Array.get (object, i), WITHOUT_VERSION));
+            bagArray.add (serializeWithType (typeInfo.getElement (object, i), WITHOUT_VERSION));
         }
         return bagArray;
     }
@@ -261,14 +521,15 @@ public class Serializer {
     }
 
     private static Object deserializePrimitiveType (String typeString, Object object) throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException, InstantiationException, InvocationTargetException {
-        String string = (String) object;
+        // values might have been stored natively, but the constructors all work from strings
+        String string = ((object == null) || (object instanceof String)) ? (String) object : object.toString ();
         Class type = getBoxedType (typeString);
 
-        // Character types don't have a constructor from a String, so we have to handle that as a
-        // special case. Fingers crossed we don't find any others
+        // Character types are constructed from a char, everything else from a String
+        Constructor constructor = TYPE_INFO.get (type).getPrimitiveConstructor ();
         return (type.isAssignableFrom (Character.class))
-                ? type.getConstructor (char.class).newInstance (string.charAt (0))
-                : type.getConstructor (String.class).newInstance (string);
+                ? constructor.newInstance (string.charAt (0))
+                : constructor.newInstance (string);
     }
 
     private static Object deserializeJavaEnumType (String typeString, Object object) throws ClassNotFoundException {
@@ -281,60 +542,30 @@ public class Serializer {
 
         // get the local classloader, and try to get the requested type from it
         // "In this dirty old part of the city, Where the sun refused to shine..."
-        Class type = getClass (typeString);
-
-        Constructor constructor = null;
-
-        // try to get a default constructor
-        try {
-            constructor = type.getConstructor ();
-            log.debug ("Instantiate " + type.getName () + " using default constructor...");
-        } catch (NoSuchMethodException exception) {
-            // skip this, user the serialization interface
-        }
-
-        // try to get a constructor using the serialization interface, this should effectively
-        // create the object without any initialization at all.
-        if (constructor == null) {
-            ReflectionFactory reflectionFactory = ReflectionFactory.getReflectionFactory ();
-            Constructor objectConstructor = Object.class.getDeclaredConstructor ();
-            constructor = reflectionFactory.newConstructorForSerialization (type, objectConstructor);
-            log.debug ("Instantiate " + type.getName () + " using serialization constructor...");
-        }
+        TypeInfo typeInfo = TYPE_INFO.get (getClass (typeString));
 
         // instantiate the object
-        target = constructor.newInstance ();
+        target = typeInfo.newInstance ();
 
         // Wendy, is the water warm enough? Yes, Lisa. (Prince, RIP)
         if (target != null) {
-            // gather all of the fields declared; public, private, static, etc., then loop over them
+            // loop over all of the fields declared; public, private, static, etc.
             BagObject bagObject = (BagObject) object;
-            Set<Field> fieldSet = getAllFields (new HashSet<> (), type);
-            for (Field field : fieldSet) {
+            for (FieldInfo fieldInfo : typeInfo.getFields ()) {
                 // only populate this field if we serialized it
-                if (bagObject.has (field.getName ())) {
-                    // force accessibility for serialization, as above... this should prevent the
-                    // IllegalAccessException from ever happening.
-                    boolean accessible = field.isAccessible ();
-                    field.setAccessible (true);
-
+                Object fieldObject = bagObject.getObject (fieldInfo.name);
+                if ((fieldObject != null) || bagObject.has (fieldInfo.name)) {
                     // get the name and type, and set the value from the encode value
-                    //log.trace ("Add " + field.getName () + " as " + field.getType ().getName ());
-                    Object fieldObject = bagObject.getObject (field.getName ());
-                    String fieldType = field.getType ().getName ();
+                    //log.trace ("Add " + fieldInfo.name + " as " + fieldInfo.typeName);
                     if ((fieldObject instanceof BagObject) && (((BagObject) fieldObject).getString (TYPE_KEY) != null)) {
-                        field.set (target, deserializeWithType ((BagObject) fieldObject, WITHOUT_VERSION));
+                        fieldInfo.set (target, deserializeWithType ((BagObject) fieldObject, WITHOUT_VERSION));
                     } else {
-                        field.set (target, deserialize (fieldType, fieldObject));
+                        fieldInfo.set (target, deserialize (fieldInfo.typeName, fieldObject));
                     }
-
-                    // restore the accessibility - not 100% sure this is necessary, better be safe
-                    // than sorry, right?
-                    field.setAccessible (accessible);
                 } else {
                     // warn about skipping a non-static field
-                    if (! Modifier.isStatic (field.getModifiers ())) {
-                        log.warn ("Skipping non-static field initializer (" + field.getName () + "), not in source bag object");
+                    if (! fieldInfo.isStatic) {
+                        log.warn ("Skipping non-static field initializer (" + fieldInfo.name + "), not in source bag object");
                     }
                 }
             }
@@ -405,11 +636,13 @@ public class Serializer {
         int dimension = 0;
         while (typeString.charAt (dimension) == '[') { ++dimension; }
 
-        // create and populate the sizes array
+        // create and populate the sizes array, descending through the first element of each
+        // level to find the size of the next one
         int sizes[] = new int[dimension];
-        for (int i = 0; i < dimension; ++i) {
+        for (int i = 0; (i < dimension) && (bagArray != null); ++i) {
             sizes[i] = bagArray.getCount ();
-            bagArray = bagArray.getBagObject (0).getBagArray (VALUE_KEY);
+            BagObject first = ((i + 1) < dimension) ? bagArray.getBagObject (0) : null;
+            bagArray = (first != null) ? first.getBagArray (VALUE_KEY) : null;
         }
 
         // return the result
@@ -417,17 +650,59 @@ public class Serializer {
     }
 
     private static void populateArray(int x, int[] arraySizes, Object target, BagArray bagArray) {
+        TypeInfo typeInfo = TYPE_INFO.get (target.getClass ());
         if (x < (arraySizes.length - 1)) {
             // we should recur for each value to populate a sub-array
             for (int i = 0, end = arraySizes[x]; i < end; ++i) {
-                Object nextTarget = Array.get (target, i);
+                Object nextTarget = typeInfo.getElement (target, i);
                 BagObject bagObject = bagArray.getBagObject (i);
                 populateArray (x + 1, arraySizes, nextTarget, bagObject.getBagArray (VALUE_KEY));
             }
+        } else if (isFlatArrayType (target.getClass ()) && (! hasWrappedElements (arraySizes[x], bagArray))) {
+            // a flat array of values (anything from version 4 has every element wrapped)
+            populateFlatArray (target, arraySizes[x], bagArray);
         } else {
             // we should set each value
             for (int i = 0, end = arraySizes[x]; i < end; ++i) {
-                Array.set (target, i, deserializeWithType (bagArray.getBagObject (i), WITHOUT_VERSION));
+                typeInfo.setElement (target, i, deserializeWithType (bagArray.getBagObject (i), WITHOUT_VERSION));
+            }
+        }
+    }
+
+    private static boolean hasWrappedElements (int length, BagArray bagArray) {
+        // version 4 wrapped every element with its type, except nulls, so the first non-null
+        // element tells us which encoding we are reading. an array of nothing but nulls reads
+        // the same way either way.
+        for (int i = 0; i < length; ++i) {
+            Object value = bagArray.getObject (i);
+            if (value != null) {
+                return value instanceof BagObject;
+            }
+        }
+        return false;
+    }
+
+    private static void populateFlatArray (Object target, int length, BagArray bagArray) {
+        // the common types are parsed straight into the array, the rest go through the same
+        // conversion as any other primitive value
+        if (target instanceof int[]) {
+            int[] array = (int[]) target;
+            for (int i = 0; i < length; ++i) array[i] = bagArray.getInteger (i);
+        } else if (target instanceof long[]) {
+            long[] array = (long[]) target;
+            for (int i = 0; i < length; ++i) array[i] = bagArray.getLong (i);
+        } else if (target instanceof double[]) {
+            double[] array = (double[]) target;
+            for (int i = 0; i < length; ++i) array[i] = bagArray.getDouble (i);
+        } else if (target instanceof String[]) {
+            String[] array = (String[]) target;
+            for (int i = 0; i < length; ++i) array[i] = bagArray.getString (i);
+        } else {
+            TypeInfo typeInfo = TYPE_INFO.get (target.getClass ());
+            String componentTypeName = target.getClass ().getComponentType ().getName ();
+            for (int i = 0; i < length; ++i) {
+                Object value = bagArray.getObject (i);
+                typeInfo.setElement (target, i, (value != null) ? deserialize (componentTypeName, value) : null);
             }
         }
     }
@@ -444,7 +719,7 @@ public class Serializer {
     private static boolean checkVersion (boolean expectVersion, BagObject bagObject) throws BadVersionException {
         if (expectVersion) {
             String version = bagObject.getString (VERSION_KEY);
-            if (!SERIALIZER_VERSION.equals (version)) {
+            if (! READABLE_VERSIONS.contains (version)) {
                 throw new BadVersionException (version, SERIALIZER_VERSION);
             }
         }
@@ -0,0 +1,139 @@
+package com.brettonw.bag;
+
+import java.util.Comparator;
+
+/**
+ * SortColumn holds the value of one sort key for every element of an array being sorted, already
+ * extracted and converted to the form it is compared in, so that a sort does that work once per
+ * element instead of twice per comparison. Elements are referred to by their index in the array.
+ * Elements that don't have the key, or whose value isn't a number for a numeric key, sort after
+ * all the others, in either order.
+ */
+abstract class SortColumn {
+    protected final boolean descending;
+
+    private SortColumn (SortKey sortKey) {
+        descending = (sortKey.getOrder () == SortOrder.DESCENDING);
+    }
+
+    /**
+     * @param a the index of an element
+     * @param b the index of another element
+     * @return the comparison of the two elements on this column, respecting the sort order
+     */
+    abstract int compare (int a, int b);
+
+    // the value the sort key refers to in an element, or null if it doesn't have one
+    private static Object extract (Object element, KeyPath keyPath) {
+        if (keyPath == null) {
+            return element;
+        }
+        return (element instanceof Bag) ? ((Bag) element).getObject (keyPath) : null;
+    }
+
+    /**
+     * @param sortKey the key to extract, and how to compare it
+     * @param elements the elements of the array
+     * @param count the number of elements to use
+     * @return the column of converted values
+     */
+    static SortColumn of (SortKey sortKey, Object[] elements, int count) {
+        KeyPath keyPath = (sortKey.getKey () != null) ? new KeyPath (sortKey.getKey ()) : null;
+        return (sortKey.getType () == SortType.NUMERIC) ?
+                new Numeric (sortKey, keyPath, elements, count) :
+                new Alphabetic (sortKey, keyPath, elements, count);
+    }
+
+    /**
+     * @param sortKeys the keys to sort by, hierarchically. if the first key has no key path the
+     *                 elements themselves are sorted, as strings or bare values, and the other keys
+     *                 are ignored. no keys at all is the same as SortKey.DEFAULT.
+     * @param elements the elements of the array
+     * @param count the number of elements to use
+     * @return the columns of converted values, one per key
+     */
+    static SortColumn[] of (SortKey[] sortKeys, Object[] elements, int count) {
+        if ((sortKeys == null) || (sortKeys.length == 0)) {
+            sortKeys = SortKey.DEFAULT;
+        }
+        SortColumn[] columns = new SortColumn[(sortKeys[0].getKey () == null) ? 1 : sortKeys.length];
+        for (int i = 0; i < columns.length; ++i) {
+            columns[i] = of (sortKeys[i], elements, count);
+        }
+        return columns;
+    }
+
+    /**
+     * @param columns
+     * @return a comparator of element indices, that compares the columns in turn
+     */
+    static Comparator<Integer> comparator (SortColumn[] columns) {
+        return (a, b) -> {
+            for (SortColumn column : columns) {
+                int cmp = column.compare (a, b);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        };
+    }
+
+    private static class Alphabetic extends SortColumn {
+        private final String[] values;
+
+        Alphabetic (SortKey sortKey, KeyPath keyPath, Object[] elements, int count) {
+            super (sortKey);
+            values = new String[count];
+            for (int i = 0; i < count; ++i) {
+                // natively stored values are compared by their string form, just like stored strings
+                Object value = extract (elements[i], keyPath);
+                values[i] = ((value instanceof String) || Bag.isNative (value)) ? value.toString () : null;
+            }
+        }
+
+        @Override
+        int compare (int a, int b) {
+            String left = values[a];
+            String right = values[b];
+            if ((left == null) || (right == null)) {
+                return (left != null) ? -1 : (right != null) ? 1 : 0;
+            }
+            return descending ? right.compareTo (left) : left.compareTo (right);
+        }
+    }
+
+    private static class Numeric extends SortColumn {
+        // NaN marks a missing value
+        private final double[] values;
+
+        Numeric (SortKey sortKey, KeyPath keyPath, Object[] elements, int count) {
+            super (sortKey);
+            values = new double[count];
+            for (int i = 0; i < count; ++i) {
+                Object value = extract (elements[i], keyPath);
+                values[i] = (value instanceof Number) ? ((Number) value).doubleValue () :
+                        (value instanceof String) ? parse ((String) value) : Double.NaN;
+            }
+        }
+
+        private static double parse (String value) {
+            try {
+                return Double.parseDouble (value);
+            } catch (NumberFormatException exception) {
+                return Double.NaN;
+            }
+        }
+
+        @Override
+        int compare (int a, int b) {
+            double left = values[a];
+            double right = values[b];
+            if (Double.isNaN (left) || Double.isNaN (right)) {
+                return (! Double.isNaN (left)) ? -1 : (! Double.isNaN (right)) ? 1 : 0;
+            }
+            int cmp = (left < right) ? -1 : (left > right) ? 1 : 0;
+            return descending ? -cmp : cmp;
+        }
+    }
+}
@@ -62,7 +62,7 @@ public class SortKey {
         return this;
     }
 
-    private int compare (Double left, Double right) {
+    private int compare (double left, double right) {
         return (left < right) ? -1 : (left > right) ? 1 : 0;
     }
 
@@ -82,10 +82,10 @@ public class SortKey {
             case NUMERIC:
                 switch (order) {
                     case ASCENDING:
-                        cmp = compare (new Double (left), new Double (right));
+                        cmp = compare (Double.parseDouble (left), Double.parseDouble (right));
                         break;
                     case DESCENDING:
-                        cmp = compare (new Double (right), new Double (left));
+                        cmp = compare (Double.parseDouble (right), Double.parseDouble (left));
                         break;
                 }
                 break;
@@ -5,6 +5,8 @@ import com.brettonw.bag.formats.MimeType;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.function.Supplier;
 
 /**
@@ -47,9 +49,29 @@ public class SourceAdapter {
     }
 
     public String getStringData (Supplier<String> noStringData) {
+        String stringData = getStringData ();
         return (stringData != null) ? stringData : noStringData.get ();
     }
 
+    /**
+     * sources that can supply their data as raw bytes return a channel here, so that a format
+     * reader capable of parsing directly from the bytes can do so without building a String.
+     * @return the channel, or null if this source only supplies string data
+     */
+    public ReadableByteChannel getChannel () {
+        return null;
+    }
+
+    /**
+     * sources that hold all of their data as raw bytes (such as a memory mapped file) return it
+     * here, so that a format reader capable of parsing the bytes in place can do so without
+     * copying them at all. each call returns an independent view of the same bytes.
+     * @return the buffer, or null if this source doesn't have one
+     */
+    public ByteBuffer getByteBuffer () {
+        return null;
+    }
+
     static String deduceMimeType (String hint, String name) {
         // extract the name extension, this is the most definitive source
         if (name != null) {
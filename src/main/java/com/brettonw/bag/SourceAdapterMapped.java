@@ -0,0 +1,116 @@
+package com.brettonw.bag;
+
+import com.brettonw.bag.formats.MimeType;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * SourceAdapterMapped maps a file into memory and supplies it as a buffer of bytes, so that a
+ * format reader that can parse in place reads straight from the OS page cache with no copy into
+ * the heap, and repeated loads of the same file don't touch the disk. Formats that can only read
+ * from a channel or a string still work, from the same mapped bytes. The file itself is closed as
+ * soon as the mapping is made.
+ */
+public class SourceAdapterMapped extends SourceAdapter {
+    /**
+     * files smaller than this are cheaper to read through a channel than to map
+     */
+    public static final long MAP_THRESHOLD = 1024 * 1024;
+
+    private final MappedByteBuffer mappedByteBuffer;
+
+    /**
+     * Map a file
+     * @param file
+     * @throws IOException
+     */
+    public SourceAdapterMapped (File file) throws IOException {
+        this (file, MimeType.DEFAULT);
+    }
+
+    /**
+     * Map a file when the MIME-type is known
+     * @param file
+     * @param mimeType
+     * @throws IOException
+     */
+    public SourceAdapterMapped (File file, String mimeType) throws IOException {
+        this.mimeType = deduceMimeType (mimeType, file.getName ());
+        try (FileChannel fileChannel = FileChannel.open (file.toPath (), StandardOpenOption.READ)) {
+            long size = fileChannel.size ();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException ("File is too large to map (" + file.getName () + ", " + size + " bytes)");
+            }
+            mappedByteBuffer = fileChannel.map (FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * @param file
+     * @return true if the file is large enough that mapping it is worthwhile, and small enough
+     * that it can be mapped as a single buffer
+     */
+    public static boolean shouldMap (File file) {
+        long length = file.length ();
+        return (length >= MAP_THRESHOLD) && (length <= Integer.MAX_VALUE);
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer () {
+        return mappedByteBuffer.duplicate ();
+    }
+
+    // a channel that reads from a buffer, for format readers that only know about channels
+    private static class BufferChannel implements ReadableByteChannel {
+        private final ByteBuffer buffer;
+        private boolean open = true;
+
+        BufferChannel (ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read (ByteBuffer destination) {
+            if (! buffer.hasRemaining ()) {
+                return -1;
+            }
+            int count = Math.min (buffer.remaining (), destination.remaining ());
+            ByteBuffer run = buffer.duplicate ();
+            run.limit (run.position () + count);
+            destination.put (run);
+            buffer.position (buffer.position () + count);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen () {
+            return open;
+        }
+
+        @Override
+        public void close () {
+            open = false;
+        }
+    }
+
+    @Override
+    public ReadableByteChannel getChannel () {
+        return new BufferChannel (getByteBuffer ());
+    }
+
+    @Override
+    public String getStringData () {
+        if (stringData == null) {
+            // always force UTF-8 for files
+            stringData = StandardCharsets.UTF_8.decode (getByteBuffer ()).toString ();
+        }
+        return stringData;
+    }
+}
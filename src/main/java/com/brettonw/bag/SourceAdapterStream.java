@@ -0,0 +1,89 @@
+package com.brettonw.bag;
+
+import com.brettonw.bag.formats.MimeType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * SourceAdapterStream supplies its data as a channel of bytes, so that a format reader that can
+ * parse directly from the channel never has to hold the whole input in memory as a String. If
+ * the format reader for the MIME-type can only work from a string, the string is read from the
+ * channel on demand. The channel is read at most once, and should be closed when the read is
+ * complete.
+ */
+public class SourceAdapterStream extends SourceAdapter implements Closeable {
+    private static final Logger log = LogManager.getLogger (SourceAdapterStream.class);
+
+    private ReadableByteChannel channel;
+
+    /**
+     * Read from any channel
+     * @param channel
+     * @param mimeType
+     */
+    public SourceAdapterStream (ReadableByteChannel channel, String mimeType) {
+        this.mimeType = mimeType;
+        this.channel = channel;
+    }
+
+    /**
+     * Read from any input stream
+     * @param inputStream
+     * @param mimeType
+     */
+    public SourceAdapterStream (InputStream inputStream, String mimeType) {
+        this (Channels.newChannel (inputStream), mimeType);
+    }
+
+    /**
+     * Read from a file
+     * @param file
+     * @throws IOException
+     */
+    public SourceAdapterStream (File file) throws IOException {
+        this (file, MimeType.DEFAULT);
+    }
+
+    /**
+     * Read from a file when the MIME-type is known
+     * @param file
+     * @param mimeType
+     * @throws IOException
+     */
+    public SourceAdapterStream (File file, String mimeType) throws IOException {
+        this (FileChannel.open (file.toPath (), StandardOpenOption.READ), deduceMimeType (mimeType, file.getName ()));
+    }
+
+    @Override
+    public ReadableByteChannel getChannel () {
+        // once the string has been read, the channel is exhausted
+        return (stringData == null) ? channel : null;
+    }
+
+    @Override
+    public String getStringData () {
+        if ((stringData == null) && (channel != null)) {
+            try {
+                // always force UTF-8 for streams
+                stringData = readString (new InputStreamReader (Channels.newInputStream (channel), StandardCharsets.UTF_8));
+            } catch (IOException exception) {
+                log.error (exception);
+            }
+        }
+        return stringData;
+    }
+
+    @Override
+    public void close () throws IOException {
+        if (channel != null) {
+            channel.close ();
+        }
+    }
+}
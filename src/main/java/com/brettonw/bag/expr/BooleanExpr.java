@@ -2,8 +2,42 @@ package com.brettonw.bag.expr;
 
 import com.brettonw.bag.Bag;
 
+import java.util.function.Function;
+import java.util.function.Predicate;
+
 abstract public class BooleanExpr extends Expr {
+    // compiled on first use, and kept for the life of the expression. compiling is idempotent,
+    // so a race between threads just compiles it twice.
+    private volatile Predicate<Bag> predicate;
+
     public boolean evaluateIsTrue (Bag bag) {
-        return (Boolean) evaluate (bag);
+        return getPredicate ().test (bag);
+    }
+
+    /**
+     * @return the expression compiled into a Predicate, with key paths precompiled, values
+     * normalized once, and no boxing of intermediate results. the predicate is cached, and safe to
+     * use from several threads.
+     */
+    public Predicate<Bag> getPredicate () {
+        Predicate<Bag> predicate = this.predicate;
+        if (predicate == null) {
+            this.predicate = predicate = compilePredicate ();
+        }
+        return predicate;
+    }
+
+    /**
+     * expressions that can compile to a predicate directly override this
+     * @return a new predicate that computes the same result as evaluate
+     */
+    Predicate<Bag> compilePredicate () {
+        return bag -> (Boolean) evaluate (bag);
+    }
+
+    @Override
+    Function<Bag, Object> compile () {
+        Predicate<Bag> predicate = getPredicate ();
+        return predicate::test;
     }
 }
@@ -3,6 +3,9 @@ package com.brettonw.bag.expr;
 import com.brettonw.bag.Bag;
 import com.brettonw.bag.BagObject;
 
+import java.util.function.Function;
+import java.util.function.Predicate;
+
 public class Equality extends BooleanExpr {
     public static final String EQUALITY = "=";
 
@@ -16,11 +19,54 @@ public class Equality extends BooleanExpr {
 
     @Override
     public Object evaluate (Bag bag) {
-        Object leftResult = left.evaluate (bag);
-        Object rightResult = right.evaluate (bag);
+        Object leftResult = normalize (left.evaluate (bag));
+        Object rightResult = normalize (right.evaluate (bag));
         return (leftResult != null) ? leftResult.equals (rightResult) : (rightResult == null);
     }
 
+    @Override
+    Predicate<Bag> compilePredicate () {
+        // comparisons against a constant value normalize it once, and only look up the key
+        if (right instanceof Value) {
+            return compare (left.compile (), normalize (((Value) right).getValue ()));
+        }
+        if (left instanceof Value) {
+            return compare (right.compile (), normalize (((Value) left).getValue ()));
+        }
+        Function<Bag, Object> left = this.left.compile ();
+        Function<Bag, Object> right = this.right.compile ();
+        return bag -> {
+            Object leftResult = normalize (left.apply (bag));
+            Object rightResult = normalize (right.apply (bag));
+            return (leftResult != null) ? leftResult.equals (rightResult) : (rightResult == null);
+        };
+    }
+
+    private static Predicate<Bag> compare (Function<Bag, Object> function, Object constant) {
+        if (constant == null) {
+            return bag -> function.apply (bag) == null;
+        }
+        return bag -> constant.equals (normalize (function.apply (bag)));
+    }
+
+    public Expr getLeft () {
+        return left;
+    }
+
+    public Expr getRight () {
+        return right;
+    }
+
+    /**
+     * @param object
+     * @return the form a value is compared in
+     */
+    public static Object normalize (Object object) {
+        // natively stored numbers and booleans compare by their string form, the same as they
+        // would if they had been stored as strings
+        return ((object instanceof Number) || (object instanceof Boolean)) ? object.toString () : object;
+    }
+
     public static BagObject bag (BagObject left, BagObject right) {
         return bag (EQUALITY, left, right);
     }
@@ -3,6 +3,8 @@ package com.brettonw.bag.expr;
 import com.brettonw.bag.Bag;
 import com.brettonw.bag.BagObject;
 
+import java.util.function.Function;
+
 abstract public class Expr {
     public static final String OPERATOR = "operator";
     public static final String LEFT = "left";
@@ -10,6 +12,15 @@ abstract public class Expr {
 
     abstract Object evaluate (Bag bag);
 
+    /**
+     * compile the expression into a function that computes the same result as evaluate, without
+     * walking the tree. expressions that can do better than interpreting themselves override this.
+     * @return the compiled function
+     */
+    Function<Bag, Object> compile () {
+        return this::evaluate;
+    }
+
     static BagObject bag (String operator, BagObject left, BagObject right) {
         return new BagObject ()
                 .put (OPERATOR, operator)
@@ -2,19 +2,34 @@ package com.brettonw.bag.expr;
 
 import com.brettonw.bag.Bag;
 import com.brettonw.bag.BagObject;
+import com.brettonw.bag.KeyPath;
+
+import java.util.function.Function;
 
 public class Key extends Expr {
     public static final String KEY = "key";
 
     private String key;
+    private KeyPath keyPath;
 
     public Key (BagObject expr) {
         key = expr.getString (KEY);
+        keyPath = (key != null) ? new KeyPath (key) : null;
     }
 
     @Override
     public Object evaluate (Bag bag) {
-        return bag.getObject (key);
+        return (keyPath != null) ? bag.getObject (keyPath) : bag.getObject (key);
+    }
+
+    @Override
+    Function<Bag, Object> compile () {
+        KeyPath keyPath = this.keyPath;
+        return (keyPath != null) ? bag -> bag.getObject (keyPath) : this::evaluate;
+    }
+
+    public String getKey () {
+        return key;
     }
 
     public static BagObject bag (String key) {
@@ -3,6 +3,8 @@ package com.brettonw.bag.expr;
 import com.brettonw.bag.Bag;
 import com.brettonw.bag.BagObject;
 
+import java.util.function.Predicate;
+
 public class Not extends BooleanExpr {
     public static final String NOT = "not";
 
@@ -17,6 +19,12 @@ public class Not extends BooleanExpr {
         return ! left.evaluateIsTrue (bag);
     }
 
+    @Override
+    Predicate<Bag> compilePredicate () {
+        Predicate<Bag> left = this.left.getPredicate ();
+        return bag -> ! left.test (bag);
+    }
+
     public static BagObject bag (BagObject left) {
         return bag (NOT, left);
     }
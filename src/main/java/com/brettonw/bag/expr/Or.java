@@ -3,6 +3,8 @@ package com.brettonw.bag.expr;
 import com.brettonw.bag.Bag;
 import com.brettonw.bag.BagObject;
 
+import java.util.function.Predicate;
+
 public class Or extends BooleanExpr {
     public static final String OR = "or";
 
@@ -19,6 +21,21 @@ public class Or extends BooleanExpr {
         return left.evaluateIsTrue (bag) || right.evaluateIsTrue (bag);
     }
 
+    @Override
+    Predicate<Bag> compilePredicate () {
+        Predicate<Bag> left = this.left.getPredicate ();
+        Predicate<Bag> right = this.right.getPredicate ();
+        return bag -> left.test (bag) || right.test (bag);
+    }
+
+    public BooleanExpr getLeft () {
+        return left;
+    }
+
+    public BooleanExpr getRight () {
+        return right;
+    }
+
     public static BagObject bag (BagObject left, BagObject right) {
         return bag (OR, left, right);
     }
@@ -3,6 +3,8 @@ package com.brettonw.bag.expr;
 import com.brettonw.bag.Bag;
 import com.brettonw.bag.BagObject;
 
+import java.util.function.Function;
+
 public class Value extends Expr {
     public static final String VALUE = "value";
 
@@ -17,6 +19,16 @@ public class Value extends Expr {
         return value;
     }
 
+    @Override
+    Function<Bag, Object> compile () {
+        String value = this.value;
+        return bag -> value;
+    }
+
+    public String getValue () {
+        return value;
+    }
+
     public static BagObject bag (Object value) {
         return bag (VALUE).put (VALUE, value);
     }
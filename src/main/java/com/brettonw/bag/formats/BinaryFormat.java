@@ -0,0 +1,46 @@
+package com.brettonw.bag.formats;
+
+/**
+ * The layout of the binary Bag format, shared by the reader and the writer.
+ * <p>
+ * A document is the magic bytes "BAG", a version byte, and a single value. Every value starts with
+ * a tag byte:
+ * <ul>
+ * <li>NULL, FALSE, TRUE - no payload</li>
+ * <li>LONG - a zigzag varint, a number stored natively</li>
+ * <li>DOUBLE - eight bytes, big-endian IEEE 754, a number stored natively</li>
+ * <li>NUMBER_STRING - a zigzag varint, a string that is the canonical decimal form of that long
+ * (it reads back as the same string)</li>
+ * <li>STRING - a varint byte count and the UTF-8 bytes</li>
+ * <li>STRING_NEW - the same as STRING, and the string is added to the string table</li>
+ * <li>STRING_REF - a varint index into the string table</li>
+ * <li>OBJECT - a varint count, then that many keys (each one a string value) and values</li>
+ * <li>ARRAY - a varint count, then that many values</li>
+ * </ul>
+ * The string table starts empty, and grows as the document is read, so repeated keys (and short
+ * repeated values) are only written once.
+ */
+final class BinaryFormat {
+    private BinaryFormat () {}
+
+    static final byte[] MAGIC = { 'B', 'A', 'G' };
+    static final int VERSION = 1;
+
+    static final int NULL = 0;
+    static final int FALSE = 1;
+    static final int TRUE = 2;
+    static final int LONG = 3;
+    static final int DOUBLE = 4;
+    static final int NUMBER_STRING = 5;
+    static final int STRING = 6;
+    static final int STRING_NEW = 7;
+    static final int STRING_REF = 8;
+    static final int OBJECT = 9;
+    static final int ARRAY = 10;
+
+    // values longer than this are unlikely to repeat, so they aren't added to the string table
+    static final int MAX_TABLE_STRING_LENGTH = 64;
+
+    // the string table stops growing when it reaches this size
+    static final int MAX_TABLE_SIZE = 1 << 16;
+}
@@ -7,6 +7,8 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.atteo.classindex.IndexSubclasses;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Function;
@@ -46,20 +48,70 @@ public class FormatReader {
         }
     }
 
-    private static FormatReader getFormatReader (String stringData, String mimeType, Class iType) {
-        // deduce the format, and create the format reader
+    // static type registration by name, for readers that can consume a channel of bytes directly
+    private static final Map<String, Function<ReadableByteChannel, FormatReader>> channelFormatReaders = new HashMap<> ();
+
+    /**
+     * register a reader that can parse its input directly from a channel, rather than from a
+     * String containing the whole input. sources that supply a channel will use this reader in
+     * preference to the String based reader for the same MIME type.
+     * @param mimeType
+     * @param replace
+     * @param factory
+     */
+    public static void registerChannelFormatReader (String mimeType, boolean replace, Function<ReadableByteChannel, FormatReader> factory) {
+        String foundMimeType = MimeType.getFromMimeType (mimeType, () -> MimeType.addMimeTypeMapping (mimeType));
+        if ((! replace) || (! channelFormatReaders.containsKey(foundMimeType))) {
+            channelFormatReaders.put(foundMimeType, factory);
+        }
+    }
+
+    // static type registration by name, for readers that can parse a buffer of bytes in place
+    private static final Map<String, Function<ByteBuffer, FormatReader>> bufferFormatReaders = new HashMap<> ();
+
+    /**
+     * register a reader that can parse its input in place from a buffer holding all of it, such
+     * as a memory mapped file. sources that supply a buffer will use this reader in preference to
+     * the channel or String based readers for the same MIME type.
+     * @param mimeType
+     * @param replace
+     * @param factory
+     */
+    public static void registerBufferFormatReader (String mimeType, boolean replace, Function<ByteBuffer, FormatReader> factory) {
+        String foundMimeType = MimeType.getFromMimeType (mimeType, () -> MimeType.addMimeTypeMapping (mimeType));
+        if ((! replace) || (! bufferFormatReaders.containsKey(foundMimeType))) {
+            bufferFormatReaders.put(foundMimeType, factory);
+        }
+    }
+
+    private static FormatReader checkFormatReader (FormatReader formatReader, String mimeType, Class iType) {
+        if (formatReader != null) {
+            if (iType.isInstance (formatReader)) {
+                return formatReader;
+            } else {
+                log.error ("Reader for format (" + mimeType + ") doesn't implement " + iType.getName ());
+            }
+        } else {
+            log.error ("No reader for format (" + mimeType + ")");
+        }
+        return null;
+    }
+
+    private static FormatReader getFormatReader (SourceAdapter sourceAdapter, Class iType) {
+        // deduce the format, and create the format reader - preferring to read directly from a
+        // buffer or a channel if the source has one, and there is a reader that can use it
+        String mimeType = sourceAdapter.getMimeType ();
         String foundMimeType = MimeType.getFromMimeType (mimeType);
         if (foundMimeType != null) {
-            FormatReader formatReader = formatReaders.get(foundMimeType).apply (stringData);
-            if (formatReader != null) {
-                if (iType.isInstance (formatReader)) {
-                    return formatReader;
-                } else {
-                    log.error ("Reader for format (" + mimeType + ") doesn't implement " + iType.getName ());
-                }
-            } else {
-                log.error ("No reader for format (" + mimeType + ")");
+            ByteBuffer buffer = sourceAdapter.getByteBuffer ();
+            if ((buffer != null) && bufferFormatReaders.containsKey (foundMimeType)) {
+                return checkFormatReader (bufferFormatReaders.get (foundMimeType).apply (buffer), mimeType, iType);
+            }
+            ReadableByteChannel channel = sourceAdapter.getChannel ();
+            if ((channel != null) && channelFormatReaders.containsKey (foundMimeType)) {
+                return checkFormatReader (channelFormatReaders.get (foundMimeType).apply (channel), mimeType, iType);
             }
+            return checkFormatReader (formatReaders.get(foundMimeType).apply (sourceAdapter.getStringData ()), mimeType, iType);
         } else {
             log.error ("Unknown format (" + mimeType + ")");
         }
@@ -72,7 +124,7 @@ public class FormatReader {
      * @return
      */
     public static BagArray readBagArray (SourceAdapter sourceAdapter) {
-        FormatReader formatReader = getFormatReader(sourceAdapter.getStringData(), sourceAdapter.getMimeType(), ArrayFormatReader.class);
+        FormatReader formatReader = getFormatReader(sourceAdapter, ArrayFormatReader.class);
         return (formatReader != null) ? ((ArrayFormatReader)formatReader).readBagArray () : null;
     }
 
@@ -82,7 +134,7 @@ public class FormatReader {
      * @return
      */
     public static BagObject readBagObject (SourceAdapter sourceAdapter) {
-        FormatReader formatReader = getFormatReader(sourceAdapter.getStringData(), sourceAdapter.getMimeType(), ObjectFormatReader.class);
+        FormatReader formatReader = getFormatReader(sourceAdapter, ObjectFormatReader.class);
         return (formatReader != null) ? ((ObjectFormatReader)formatReader).readBagObject () : null;
     }
 }
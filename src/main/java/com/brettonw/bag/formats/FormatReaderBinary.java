@@ -0,0 +1,303 @@
+package com.brettonw.bag.formats;
+
+import com.brettonw.bag.Bag;
+import com.brettonw.bag.BagArray;
+import com.brettonw.bag.BagObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.brettonw.bag.formats.BinaryFormat.*;
+
+/**
+ * The FormatReaderBinary reads the compact binary Bag format (@see BinaryFormat), either from a
+ * channel of bytes, or from a String where each character holds one byte (as written by
+ * FormatWriterBinary to an Appendable). There is no character scanning, every value is read
+ * directly according to its tag.
+ */
+public class FormatReaderBinary extends FormatReader implements ArrayFormatReader, ObjectFormatReader {
+    private static final Logger log = LogManager.getLogger (FormatReaderBinary.class);
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    // bags nested deeper than this are rejected rather than overflowing the stack
+    static final int MAX_DEPTH = 1024;
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer;
+    private boolean endOfChannel;
+    private final List<String> strings = new ArrayList<> ();
+    private boolean nativeValues;
+    private int depth;
+
+    public FormatReaderBinary () {
+        this ((ReadableByteChannel) null);
+    }
+
+    /**
+     * @param input a String where each character is one byte of the binary format
+     */
+    public FormatReaderBinary (String input) {
+        super (input);
+        channel = null;
+        buffer = ByteBuffer.wrap ((input != null) ? input.getBytes (StandardCharsets.ISO_8859_1) : new byte[0]);
+        endOfChannel = true;
+    }
+
+    /**
+     * @param input the whole input, already in memory or mapped from a file. it is read in place
+     *              from its current position to its limit, and is not modified.
+     */
+    public FormatReaderBinary (ByteBuffer input) {
+        super (null);
+        channel = null;
+        buffer = input.slice ();
+        endOfChannel = true;
+    }
+
+    /**
+     * @param channel the source of bytes, which is read incrementally
+     */
+    public FormatReaderBinary (ReadableByteChannel channel) {
+        super (null);
+        this.channel = channel;
+        buffer = ByteBuffer.allocate (BUFFER_SIZE);
+        buffer.flip ();
+        endOfChannel = (channel == null);
+    }
+
+    /**
+     * read numbers and booleans as native values instead of Strings, and return bags that store
+     * that form (@see BagObject#setNativeValues).
+     * @param nativeValues
+     * @return this, for chaining
+     */
+    public FormatReaderBinary setNativeValues (boolean nativeValues) {
+        this.nativeValues = nativeValues;
+        return this;
+    }
+
+    // thrown internally when the input is malformed, and caught at the top of the read
+    private static class BinaryFormatException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        BinaryFormatException (String message) {
+            super (message);
+        }
+    }
+
+    // make sure there are at least "need" bytes available from the current position
+    private void fill (int need) throws BinaryFormatException {
+        if (buffer.remaining () < need) {
+            if (channel != null) {
+                buffer.compact ();
+                if (buffer.capacity () < need) {
+                    ByteBuffer grown = ByteBuffer.allocate (Math.max (need, buffer.capacity () * 2));
+                    buffer.flip ();
+                    grown.put (buffer);
+                    buffer = grown;
+                }
+                try {
+                    while ((buffer.position () < need) && (! endOfChannel)) {
+                        endOfChannel = (channel.read (buffer) < 0);
+                    }
+                } catch (IOException exception) {
+                    log.error (exception);
+                    endOfChannel = true;
+                }
+                buffer.flip ();
+            }
+            if (buffer.remaining () < need) {
+                throw new BinaryFormatException ("Unexpected end of input");
+            }
+        }
+    }
+
+    private int readByte () throws BinaryFormatException {
+        fill (1);
+        return buffer.get () & 0xff;
+    }
+
+    private long readVarint () throws BinaryFormatException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte ();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new BinaryFormatException ("Malformed varint");
+    }
+
+    private long readZigzag () throws BinaryFormatException {
+        long value = readVarint ();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readCount () throws BinaryFormatException {
+        long count = readVarint ();
+        if ((count < 0) || (count > Integer.MAX_VALUE)) {
+            throw new BinaryFormatException ("Invalid count (" + count + ")");
+        }
+        return (int) count;
+    }
+
+    // the counts in the input can't be trusted, so they are only used to presize containers as
+    // far as the input could actually fill them (every element takes at least one byte)
+    private int presize (int count) {
+        return Math.min (count, (channel != null) ? BUFFER_SIZE : buffer.remaining ());
+    }
+
+    private String readUtf8 () throws BinaryFormatException {
+        int length = readCount ();
+        if ((channel != null) && (length > buffer.capacity ())) {
+            return readLongUtf8 (length);
+        }
+        fill (length);
+        String string;
+        if (buffer.hasArray ()) {
+            string = new String (buffer.array (), buffer.arrayOffset () + buffer.position (), length, StandardCharsets.UTF_8);
+            buffer.position (buffer.position () + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get (bytes);
+            string = new String (bytes, StandardCharsets.UTF_8);
+        }
+        return string;
+    }
+
+    // a string longer than the buffer is collected as it arrives, so memory is only used for
+    // bytes that are actually in the input, rather than for whatever length it claims
+    private String readLongUtf8 (int length) throws BinaryFormatException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream (BUFFER_SIZE);
+        while (length > 0) {
+            fill (1);
+            int chunk = Math.min (length, buffer.remaining ());
+            bytes.write (buffer.array (), buffer.arrayOffset () + buffer.position (), chunk);
+            buffer.position (buffer.position () + chunk);
+            length -= chunk;
+        }
+        return new String (bytes.toByteArray (), StandardCharsets.UTF_8);
+    }
+
+    private String readString (int tag) throws BinaryFormatException {
+        switch (tag) {
+            case STRING:
+                return readUtf8 ();
+            case STRING_NEW: {
+                String string = readUtf8 ();
+                strings.add (string);
+                return string;
+            }
+            case STRING_REF: {
+                int index = readCount ();
+                if (index >= strings.size ()) {
+                    throw new BinaryFormatException ("Invalid string reference (" + index + ")");
+                }
+                return strings.get (index);
+            }
+            case NUMBER_STRING:
+                return Long.toString (readZigzag ());
+        }
+        throw new BinaryFormatException ("Expected a string, found tag (" + tag + ")");
+    }
+
+    private BagObject readObject () throws BinaryFormatException {
+        int count = readCount ();
+        BagObject bagObject = new BagObject (presize (count)).setNativeValues (nativeValues);
+        for (int i = 0; i < count; ++i) {
+            String key = readString (readByte ());
+            Object value = readValue (readByte ());
+            if (value != null) {
+                bagObject.put (key, value);
+            }
+        }
+        return bagObject;
+    }
+
+    private BagArray readArray () throws BinaryFormatException {
+        int count = readCount ();
+        BagArray bagArray = new BagArray (presize (count)).setNativeValues (nativeValues);
+        for (int i = 0; i < count; ++i) {
+            bagArray.add (readValue (readByte ()));
+        }
+        return bagArray;
+    }
+
+    private Object readValue (int tag) throws BinaryFormatException {
+        switch (tag) {
+            case NULL: return null;
+            case FALSE: return nativeValues ? (Object) Boolean.FALSE : "false";
+            case TRUE: return nativeValues ? (Object) Boolean.TRUE : "true";
+            case LONG: {
+                long value = readZigzag ();
+                return nativeValues ? (Object) value : Long.toString (value);
+            }
+            case DOUBLE: {
+                fill (8);
+                double value = buffer.getDouble ();
+                return nativeValues ? (Object) value : Double.toString (value);
+            }
+            case OBJECT: case ARRAY: {
+                if (++depth > MAX_DEPTH) {
+                    throw new BinaryFormatException ("Nesting deeper than " + MAX_DEPTH);
+                }
+                Bag bag = (tag == OBJECT) ? readObject () : readArray ();
+                --depth;
+                return bag;
+            }
+            default: return readString (tag);
+        }
+    }
+
+    private Bag readDocument () {
+        try {
+            depth = 0;
+            for (byte b : MAGIC) {
+                if (readByte () != b) {
+                    throw new BinaryFormatException ("Not a binary bag");
+                }
+            }
+            int version = readByte ();
+            if (version != VERSION) {
+                throw new BinaryFormatException ("Unsupported version (" + version + ")");
+            }
+            Object value = readValue (readByte ());
+            if (value instanceof Bag) {
+                return (Bag) value;
+            }
+            throw new BinaryFormatException ("Expected a BagObject or BagArray");
+        } catch (BinaryFormatException exception) {
+            log.error ("Error while reading binary input: " + exception.getMessage ());
+        }
+        return null;
+    }
+
+    @Override
+    public BagArray readBagArray () {
+        Bag bag = readDocument ();
+        return (bag instanceof BagArray) ? (BagArray) bag : null;
+    }
+
+    @Override
+    public BagObject readBagObject () {
+        Bag bag = readDocument ();
+        return (bag instanceof BagObject) ? (BagObject) bag : null;
+    }
+
+    static {
+        MimeType.addExtensionMapping (MimeType.BAG, "bag");
+        MimeType.addMimeTypeMapping (MimeType.BAG, "application/x-bag-binary");
+        FormatReader.registerFormatReader (MimeType.BAG, false, FormatReaderBinary::new);
+        FormatReader.registerChannelFormatReader (MimeType.BAG, false, FormatReaderBinary::new);
+        FormatReader.registerBufferFormatReader (MimeType.BAG, false, FormatReaderBinary::new);
+    }
+}
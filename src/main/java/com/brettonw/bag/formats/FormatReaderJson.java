@@ -2,178 +2,325 @@ package com.brettonw.bag.formats;
 
 // The FormatReaderJson is loosely modeled after a JSON parser grammar from the site (http://www.json.org).
 // The main difference is that we ignore differences between value types (all of them will be
-// strings internally), and assume the input is a well formed string representation of a BagObject
-// or BagArray in JSON-ish format
+// strings internally, unless native values are requested), and assume the input is a well formed string representation of a BagObject
+// or BagArray in JSON-ish format. The grammar itself lives in JsonPullParser, and the readers here
+// just assemble its events into a tree.
 
+import com.brettonw.bag.Bag;
 import com.brettonw.bag.BagArray;
 import com.brettonw.bag.BagObject;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+public class FormatReaderJson extends JsonPullParser implements ArrayFormatReader, ObjectFormatReader {
+    /**
+     * root arrays in inputs at least this long (in chars or bytes) that are held in memory as a
+     * whole are read in parallel, when there is more than one core to use (@see setParallel)
+     */
+    public static final int PARALLEL_THRESHOLD = 512 * 1024;
+
+    private boolean nativeValues;
+    private ByteBuffer buffer;
+    private int parallelThreshold = PARALLEL_THRESHOLD;
 
-public class FormatReaderJson extends FormatReaderParsed implements ArrayFormatReader, ObjectFormatReader {
     public FormatReaderJson () {}
 
     public FormatReaderJson (String input) {
         super (input);
     }
 
-    @Override
-    public BagArray readBagArray () {
-        // <Array> :: [ ] | [ <Elements> ]
-        BagArray bagArray = new BagArray ();
-        return (expect('[') && readElements (bagArray) && require(']')) ? bagArray : null;
-    }
-
-    private boolean storeValue (BagArray bagArray) {
-        // the goal here is to try to read a "value" from the input stream, and store it into the
-        // BagArray. BagArrays can store null values, so we have a special handling case to make
-        // sure we properly convert "null" string to null value - as distinguished from a failed
-        // read, which returns null value to start.the method returns true if a valid value was
-        // fetched from the stream (in which case it was added to the BagArray)
-        Object value = readValue ();
-        if (value != null) {
-            // special case for "null"
-            if ((value instanceof String) && (((String) value).equalsIgnoreCase ("null"))) {
-                value = null;
-            }
-            bagArray.add (value);
-            return true;
-        }
-        return false;
+    /**
+     * read JSON directly from a channel of UTF-8 bytes, without first collecting the whole input
+     * into a String
+     * @param channel
+     */
+    public FormatReaderJson (ReadableByteChannel channel) {
+        super (channel);
     }
 
-    private boolean readElements (BagArray bagArray) {
-        // <Elements> ::= <Value> | <Value> , <Elements>
-        boolean result = true;
-        if (storeValue (bagArray)) {
-            while (expect (',')) {
-                result = require (storeValue (bagArray), "Valid value");
-            }
-        }
-        return result;
+    /**
+     * read JSON directly from a buffer of UTF-8 bytes, such as a mapped file
+     * @param input
+     */
+    public FormatReaderJson (ByteBuffer input) {
+        super (input);
+        buffer = input.slice ();
     }
 
-    @Override
-    public BagObject readBagObject () {
-        // <Object> ::= { } | { <Members> }
-        BagObject bagObject = new BagObject ();
-        return (expect('{') && readMembers (bagObject) && require('}')) ? bagObject : null;
+    public FormatReaderJson (TextSource source) {
+        super (source);
+    }
+
+    /**
+     * by default every value is read as a String. with native values, bare (unquoted) numbers and
+     * booleans are read as Long, Double, or Boolean values, and stored in bags that keep them in
+     * that form (@see BagObject#setNativeValues).
+     * @param nativeValues
+     * @return this, for chaining
+     */
+    public FormatReaderJson setNativeValues (boolean nativeValues) {
+        this.nativeValues = nativeValues;
+        return this;
+    }
+
+    /**
+     * a root array in input that is held in memory as a whole (a String or a buffer) can be read
+     * in parallel, by splitting it into its elements and parsing them across the common
+     * ForkJoinPool. by default this is done for large inputs on multi-core machines, this
+     * overrides that choice for this reader.
+     * @param parallel
+     * @return this, for chaining
+     */
+    public FormatReaderJson setParallel (boolean parallel) {
+        parallelThreshold = parallel ? 0 : Integer.MAX_VALUE;
+        return this;
+    }
+
+    private BagObject newBagObject () {
+        return new BagObject ().setNativeValues (nativeValues);
     }
 
-    private boolean readMembers (BagObject bagObject) {
-        // <Members> ::= <Pair> | <Pair> , <Members>
-        boolean result = true;
-        if (readPair (bagObject)) {
-            while (expect (',')) {
-                result = require (readPair (bagObject), "Valid pair");
+    private BagArray newBagArray () {
+        return new BagArray ().setNativeValues (nativeValues);
+    }
+
+    private Bag newBag () {
+        return (getEvent () == JsonEvent.START_OBJECT) ? newBagObject () : newBagArray ();
+    }
+
+    private Object getValue () {
+        String value = getString ();
+        return (nativeValues && (! isQuoted ())) ? nativeValue (value) : value;
+    }
+
+    // convert a bare value to a Boolean or a number if it is spelled like one, numbers that don't
+    // fit in a long are left as Strings so nothing is lost
+    static Object nativeValue (String value) {
+        switch (value) {
+            case "true": return Boolean.TRUE;
+            case "false": return Boolean.FALSE;
+        }
+
+        // -? (0 | [1-9][0-9]*) (. [0-9]+)? ([eE] [+-]? [0-9]+)?
+        int length = value.length ();
+        int i = ((length > 0) && (value.charAt (0) == '-')) ? 1 : 0;
+        int start = i;
+        i = skipDigits (value, i);
+        if ((i == start) || ((value.charAt (start) == '0') && (i > start + 1))) {
+            return value;
+        }
+        boolean integral = true;
+        if ((i < length) && (value.charAt (i) == '.')) {
+            integral = false;
+            start = ++i;
+            if ((i = skipDigits (value, i)) == start) {
+                return value;
             }
         }
-        return result;
-    }
+        if ((i < length) && ((value.charAt (i) == 'e') || (value.charAt (i) == 'E'))) {
+            integral = false;
+            if ((++i < length) && ((value.charAt (i) == '+') || (value.charAt (i) == '-'))) {
+                ++i;
+            }
+            start = i;
+            if ((i = skipDigits (value, i)) == start) {
+                return value;
+            }
+        }
+        if (i < length) {
+            return value;
+        }
 
-    private boolean storeValue (BagObject bagObject, String key) {
-        // the goal here is to try to read a "value" from the input stream, and store it into the
-        // BagObject. BagObject can NOT store null values, so we have a special handling case to
-        // make sure we properly convert "null" string to null value - as distinguished from a failed
-        // read, which returns null value to start. the method returns true if a valid value was
-        // fetched from the stream, regardless of whether a null value was stored in the BagObject.
-        Object value = readValue ();
-        if (value != null) {
-            // special case for "null"
-            if (!((value instanceof String) && (((String) value).equalsIgnoreCase ("null")))) {
-                bagObject.put (key, value);
+        if (integral) {
+            try {
+                // negative zero has no long representation
+                return value.equals ("-0") ? value : Long.valueOf (value);
+            } catch (NumberFormatException exception) {
+                return value;
             }
-            return true;
         }
-        return false;
+        return Double.valueOf (value);
     }
 
-    private boolean readPair (BagObject bagObject) {
-        // <Pair> ::= <String> : <Value>
-        String key = readString ();
-        return (key != null) && (key.length () > 0) &&
-                require (':') && require (storeValue (bagObject, key), "Valid value");
+    private static int skipDigits (String value, int i) {
+        while ((i < value.length ()) && (value.charAt (i) >= '0') && (value.charAt (i) <= '9')) {
+            ++i;
+        }
+        return i;
     }
 
-    private static final char BARE_VALUE_STOP_CHARS[] = sortString (" \u00a0\t\n:{}[]\",");
-    private static final char QUOTED_STRING_STOP_CHARS[] = sortString ("\n\"");
+    @Override
+    public BagArray readBagArray () {
+        if (isValueSequence ()) {
+            return readValueSequence ();
+        }
+        BagArray bagArray = readParallel ();
+        if (bagArray != null) {
+            return bagArray;
+        }
+        return (next () == JsonEvent.START_ARRAY) ? (BagArray) readBag (newBagArray ()) : null;
+    }
 
-    private static char[] sortString (String string) {
-        char chars[] = string.toCharArray ();
-        Arrays.sort (chars);
-        return chars;
+    @Override
+    public BagObject readBagObject () {
+        return (next () == JsonEvent.START_OBJECT) ? (BagObject) readBag (newBagObject ()) : null;
     }
 
-    private boolean notIn (char stopChars[], char c) {
-        int i = 0;
-        int end = stopChars.length;
-        char stopChar = 0;
-        while ((i < end) && (c > (stopChar = stopChars[i]))) {
-            ++i;
+    // returns null if the array should be read sequentially
+    private BagArray readParallel () {
+        if ((parallelThreshold == PARALLEL_THRESHOLD) && (ForkJoinPool.getCommonPoolParallelism () < 2)) {
+            return null;
+        }
+        if ((input != null) && (input.length () >= parallelThreshold)) {
+            return JsonArraySplitter.of (input).read (nativeValues);
+        }
+        if ((buffer != null) && (buffer.limit () >= parallelThreshold)) {
+            return JsonArraySplitter.of (buffer).read (nativeValues);
         }
-        return stopChar != c;
+        return null;
     }
 
-    private int consumeUntilStop (char stopChars[]) {
-        int start = index;
-        char c;
-        //while (check () && (Arrays.binarySearch (stopChars, c = input.charAt (index)) < 0)) {
-        while (check () && notIn (stopChars, (c = input.charAt (index)))) {
-            // using the escape mechanism is like a free pass for the next character, but we
-            // don't do any transformation on the substring, just return it as written
-            index += (c == '\\') ? 2 : 1;
+    /**
+     * read exactly one value, which must be followed by nothing but white space, such as one
+     * element of an array that has been split into its elements.
+     * @param failed the result to return if the input isn't exactly one value
+     * @return the value (possibly null), or failed
+     */
+    Object readSingleValue (Object failed) {
+        Object value;
+        switch (next ()) {
+            case START_OBJECT:
+            case START_ARRAY:
+                if ((value = readBag (newBag ())) == null) {
+                    return failed;
+                }
+                break;
+
+            case VALUE:
+                value = getValue ();
+                break;
+
+            case NULL:
+                value = null;
+                break;
+
+            case END:
+            case ERROR:
+            default:
+                return failed;
         }
-        return start;
+        consumeWhiteSpace ();
+        return check () ? failed : value;
     }
 
-    private String readString () {
-        // " chars " | <chars>
-        String result = null;
-        if (expect('"')) {
-            // digest the string, and be sure to eat the end quote
-            int start = consumeUntilStop (QUOTED_STRING_STOP_CHARS);
-            result = input.substring (start, index++);
-        } else {
-            // technically, we're being sloppy allowing bare values where quoted strings are
-            // expected, but it's part of the simplified structure we support. This allows us to
-            // read valid JSON files without handling every single case.
-            int start = consumeUntilStop (BARE_VALUE_STOP_CHARS);
-
-            // capture the result if we actually consumed some characters
-            if (index > start) {
-                result = input.substring (start, index);
+    private BagArray readValueSequence () {
+        // each root value in the sequence is an element of the array
+        BagArray bagArray = newBagArray ();
+        while (true) {
+            switch (next ()) {
+                case START_OBJECT:
+                case START_ARRAY: {
+                    Bag bag = readBag (newBag ());
+                    if (bag == null) {
+                        return null;
+                    }
+                    bagArray.add (bag);
+                    break;
+                }
+
+                case VALUE:
+                    bagArray.add (getValue ());
+                    break;
+
+                case NULL:
+                    bagArray.add (null);
+                    break;
+
+                case END:
+                    return bagArray;
+
+                case ERROR:
+                default:
+                    return null;
             }
         }
-        return result;
     }
 
-    private Object readValue () {
-        // <Value> ::= <String> | <Object> | <Array>
-        consumeWhiteSpace ();
+    /**
+     * assemble the events for the container that has just been opened into the given bag,
+     * iteratively so that deeply nested input doesn't exhaust the call stack.
+     * @param root an empty container matching the START event that was just returned by next
+     * @return the filled container, or null if there was an error in the input
+     */
+    protected Bag readBag (Bag root) {
+        ArrayList<Bag> stack = new ArrayList<> ();
+        Bag bag = root;
+        String key = null;
+        while (true) {
+            switch (next ()) {
+                case KEY:
+                    key = getString ();
+                    break;
 
-        Object value = null;
-        if (check ()) {
-            switch (input.charAt (index)) {
-                case '{':
-                    value = readBagObject ();
+                case VALUE:
+                    store (bag, key, getValue ());
                     break;
 
-                case '[':
-                    value = readBagArray ();
+                case NULL:
+                    // BagArrays can store null values, BagObjects can not, so the key is omitted
+                    if (bag instanceof BagArray) {
+                        ((BagArray) bag).add (null);
+                    }
                     break;
 
-                case '"':
-                default:
-                    value = readString ();
+                case START_OBJECT:
+                case START_ARRAY: {
+                    Bag child = newBag ();
+                    store (bag, key, child);
+                    stack.add (bag);
+                    bag = child;
                     break;
+                }
+
+                case END_OBJECT:
+                case END_ARRAY:
+                    if (stack.isEmpty ()) {
+                        return root;
+                    }
+                    bag = stack.remove (stack.size () - 1);
+                    break;
+
+                case END:
+                case ERROR:
+                default:
+                    return null;
             }
         }
-        return value;
+    }
+
+    private static void store (Bag bag, String key, Object value) {
+        if (bag instanceof BagObject) {
+            ((BagObject) bag).put (key, value);
+        } else {
+            ((BagArray) bag).add (value);
+        }
     }
 
     static {
         MimeType.addExtensionMapping (MimeType.JSON, "json");
         MimeType.addMimeTypeMapping (MimeType.JSON, "text/json");
         FormatReader.registerFormatReader (MimeType.JSON, false, FormatReaderJson::new);
+        FormatReader.registerChannelFormatReader (MimeType.JSON, false, FormatReaderJson::new);
+        FormatReader.registerBufferFormatReader (MimeType.JSON, false, FormatReaderJson::new);
+
+        // newline-delimited JSON is a sequence of values, read as an array
+        MimeType.addExtensionMapping (MimeType.NDJSON, "ndjson", "jsonl");
+        MimeType.addMimeTypeMapping (MimeType.NDJSON, "application/jsonl", "application/x-jsonlines");
+        FormatReader.registerFormatReader (MimeType.NDJSON, false, (input) -> new FormatReaderJson (input).setValueSequence (true));
+        FormatReader.registerChannelFormatReader (MimeType.NDJSON, false, (channel) -> new FormatReaderJson (channel).setValueSequence (true));
+        FormatReader.registerBufferFormatReader (MimeType.NDJSON, false, (buffer) -> new FormatReaderJson (buffer).setValueSequence (true));
     }
 }
@@ -8,20 +8,27 @@ import java.util.Arrays;
 public class FormatReaderParsed extends FormatReader {
     private static final Logger log = LogManager.getLogger (FormatReader.class);
 
-    protected int index;
-    protected int inputLength;
-    protected int lineNumber;
-    protected int lastLineIndex;
+    protected TextSource source;
     protected boolean error;
 
+    // when quiet, errors are recorded but not logged, for readers whose failures are handled
+    // (and reported) some other way
+    boolean quiet;
+
     protected FormatReaderParsed () {}
 
     public FormatReaderParsed (String input) {
         super (input);
-        inputLength = (input != null) ? input.length () : 0;
-        index = 0;
-        lineNumber = 1;
-        lastLineIndex = 0;
+        source = new TextSourceString (input);
+    }
+
+    /**
+     *
+     * @param source
+     */
+    public FormatReaderParsed (TextSource source) {
+        super ();
+        this.source = source;
     }
 
     /**
@@ -29,26 +36,13 @@ public class FormatReaderParsed extends FormatReader {
      * @return
      */
     protected boolean check () {
-        return (! error) && (index < inputLength);
+        return (! error) && (source.peek () != TextSource.END);
     }
 
     protected void consumeWhiteSpace () {
         // consume white space (space, carriage return, tab, etc.
-        while (check ()) {
-            switch (input.charAt (index)) {
-                // tab, space, nbsp
-                case '\t': case ' ': case '\u00a0':
-                    ++index;
-                    break;
-                // carriage return - the file reader converts all returns to \n
-                case '\n':
-                    ++index;
-                    ++lineNumber;
-                    lastLineIndex = index;
-                    break;
-                default:
-                    return;
-            }
+        if (! error) {
+            source.skipWhiteSpace ();
         }
     }
 
@@ -61,8 +55,8 @@ public class FormatReaderParsed extends FormatReader {
         consumeWhiteSpace ();
 
         // the next character should be the one we expect
-        if (check() && (input.charAt (index) == c)) {
-            ++index;
+        if (check() && (source.peek () == c)) {
+            source.advance ();
             return true;
         }
         return false;
@@ -98,28 +92,22 @@ public class FormatReaderParsed extends FormatReader {
 
         // log the messages, we only need to output the line if this is the first time the error is
         // being reported
-        if (! error) {
+        if ((! error) && (! quiet)) {
             // say where the error is
-            log.error ("Error while parsing input on line " + lineNumber + ", near: ");
-            // find the end of the current line. note: line endings could only be '\n' because the
-            // input reader consumed the actual line endings for us and replaced them with '\n'
-            int lineEnd = index;
-            while ((lineEnd < inputLength) && (input.charAt (lineEnd) != '\n')) {
-                ++lineEnd;
-            }
-            log.error (input.substring (lastLineIndex, lineEnd));
+            log.error ("Error while parsing input on line " + source.getLineNumber () + ", near: ");
+            log.error (source.getLine ());
 
             // build the error message, by computing a carat line, and adding the error message to it
-            int errorIndex = index - lastLineIndex;
+            int errorIndex = source.getColumn ();
             char[] caratChars = new char[errorIndex + 2];
             Arrays.fill (caratChars, ' ');
             caratChars[errorIndex] = '^';
             String carat = new String (caratChars) + errorMessage;
 
             log.error (carat);
-
-            // set the error state
-            error = true;
         }
+
+        // set the error state
+        error = true;
     }
 }
@@ -1,15 +1,31 @@
 package com.brettonw.bag.formats;
 
+import com.brettonw.bag.Bag;
 import com.brettonw.bag.BagArray;
 import com.brettonw.bag.BagObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.atteo.classindex.IndexSubclasses;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Supplier;
 
+/**
+ * A FormatWriter emits a Bag in some text format. Writers emit directly into an Appendable, so
+ * the output is built in a single buffer (or sent straight to a stream) as the Bag is traversed,
+ * rather than being assembled from nested Strings. The String forms are built on top of that.
+ */
 @IndexSubclasses
 abstract public class FormatWriter {
+    private static final Logger log = LogManager.getLogger (FormatWriter.class);
+
     protected static final String[] QUOTES = { "\"" };
 
     protected String enclose (String input, String[] bracket) {
@@ -22,8 +38,66 @@ abstract public class FormatWriter {
         return enclose (input, QUOTES);
     }
 
-    abstract public String write (BagObject bagObject);
-    abstract public String write (BagArray bagArray);
+    /**
+     * emit a BagObject into an Appendable
+     * @param bagObject the source
+     * @param appendable the destination, which is not flushed or closed
+     * @throws IOException if the destination fails
+     */
+    abstract public void write (BagObject bagObject, Appendable appendable) throws IOException;
+
+    /**
+     * emit a BagArray into an Appendable
+     * @param bagArray the source
+     * @param appendable the destination, which is not flushed or closed
+     * @throws IOException if the destination fails
+     */
+    abstract public void write (BagArray bagArray, Appendable appendable) throws IOException;
+
+    /**
+     * emit a Bag into an Appendable
+     * @param bag the source, a BagObject or a BagArray
+     * @param appendable the destination, which is not flushed or closed
+     * @throws IOException if the destination fails
+     */
+    public void write (Bag bag, Appendable appendable) throws IOException {
+        if (bag instanceof BagObject) {
+            write ((BagObject) bag, appendable);
+        } else {
+            write ((BagArray) bag, appendable);
+        }
+    }
+
+    /**
+     * emit a Bag into an OutputStream as UTF-8 text
+     * @param bag the source, a BagObject or a BagArray
+     * @param outputStream the destination, which is flushed but not closed
+     * @throws IOException if the destination fails
+     */
+    public void write (Bag bag, OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter (new OutputStreamWriter (outputStream, StandardCharsets.UTF_8));
+        write (bag, writer);
+        writer.flush ();
+    }
+
+    public String write (BagObject bagObject) {
+        return writeString (bagObject);
+    }
+
+    public String write (BagArray bagArray) {
+        return writeString (bagArray);
+    }
+
+    private String writeString (Bag bag) {
+        StringBuilder stringBuilder = new StringBuilder ();
+        try {
+            write (bag, stringBuilder);
+        } catch (IOException exception) {
+            // a StringBuilder doesn't actually throw
+            log.error (exception);
+        }
+        return stringBuilder.toString ();
+    }
 
     // static type registration by name
     private static final Map<String, FormatWriter> formatWriters = new HashMap<>();
@@ -47,4 +121,44 @@ abstract public class FormatWriter {
         }
         return null;
     }
+
+    /**
+     * emit a Bag in the requested format into an Appendable
+     * @param bag the source, a BagObject or a BagArray
+     * @param format the mime type of the output
+     * @param appendable the destination, which is not flushed or closed
+     * @return true if the Bag was written, false if the format is unknown or the destination failed
+     */
+    public static boolean write (Bag bag, String format, Appendable appendable) {
+        FormatWriter formatWriter = formatWriters.get (format);
+        if (formatWriter != null) {
+            try {
+                formatWriter.write (bag, appendable);
+                return true;
+            } catch (IOException exception) {
+                log.error (exception);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * emit a Bag in the requested format into an OutputStream as UTF-8 text
+     * @param bag the source, a BagObject or a BagArray
+     * @param format the mime type of the output
+     * @param outputStream the destination, which is flushed but not closed
+     * @return true if the Bag was written, false if the format is unknown or the destination failed
+     */
+    public static boolean write (Bag bag, String format, OutputStream outputStream) {
+        FormatWriter formatWriter = formatWriters.get (format);
+        if (formatWriter != null) {
+            try {
+                formatWriter.write (bag, outputStream);
+                return true;
+            } catch (IOException exception) {
+                log.error (exception);
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,212 @@
+package com.brettonw.bag.formats;
+
+import com.brettonw.bag.Bag;
+import com.brettonw.bag.BagArray;
+import com.brettonw.bag.BagObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.brettonw.bag.formats.BinaryFormat.*;
+
+/**
+ * The FormatWriterBinary emits the compact binary Bag format (@see BinaryFormat). Written to an
+ * OutputStream, the output is the raw bytes. Written to an Appendable (or as a String), each
+ * byte is emitted as one character in the range 0-255, which is the same as decoding the bytes
+ * as ISO-8859-1.
+ */
+public class FormatWriterBinary extends FormatWriter {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    public FormatWriterBinary () { super (); }
+
+    // the state of writing one document
+    private static class Encoder {
+        private final OutputStream outputStream;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int count;
+        private final Map<String, Integer> strings = new HashMap<> ();
+
+        Encoder (OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        private void ensure (int need) throws IOException {
+            if ((count + need) > buffer.length) {
+                flush ();
+            }
+        }
+
+        void flush () throws IOException {
+            outputStream.write (buffer, 0, count);
+            count = 0;
+        }
+
+        void writeByte (int b) throws IOException {
+            ensure (1);
+            buffer[count++] = (byte) b;
+        }
+
+        void writeVarint (long value) throws IOException {
+            ensure (10);
+            while ((value & ~0x7fL) != 0) {
+                buffer[count++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[count++] = (byte) value;
+        }
+
+        void writeZigzag (long value) throws IOException {
+            writeVarint ((value << 1) ^ (value >> 63));
+        }
+
+        void writeDouble (double value) throws IOException {
+            ensure (8);
+            long bits = Double.doubleToRawLongBits (value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[count++] = (byte) (bits >>> shift);
+            }
+        }
+
+        void writeBytes (byte[] bytes) throws IOException {
+            writeVarint (bytes.length);
+            if (bytes.length > (buffer.length - count)) {
+                flush ();
+                outputStream.write (bytes);
+            } else {
+                System.arraycopy (bytes, 0, buffer, count, bytes.length);
+                count += bytes.length;
+            }
+        }
+
+        void writeString (String string, boolean useTable) throws IOException {
+            Integer index = strings.get (string);
+            if (index != null) {
+                writeByte (STRING_REF);
+                writeVarint (index);
+            } else if (useTable && (strings.size () < MAX_TABLE_SIZE)) {
+                strings.put (string, strings.size ());
+                writeByte (STRING_NEW);
+                writeBytes (string.getBytes (StandardCharsets.UTF_8));
+            } else {
+                writeByte (STRING);
+                writeBytes (string.getBytes (StandardCharsets.UTF_8));
+            }
+        }
+
+        // true if the string is exactly what Long.toString would produce for some long, so it
+        // can be stored as a number and read back as the same string
+        private static boolean isCanonicalLong (String string) {
+            int length = string.length ();
+            if ((length == 0) || (length > 20)) {
+                return false;
+            }
+            int start = (string.charAt (0) == '-') ? 1 : 0;
+            if ((start == length) || ((string.charAt (start) == '0') && ((length > 1) || (start == 1)))) {
+                // "-", or a leading zero (other than "0" itself), or "-0"
+                return false;
+            }
+            for (int i = start; i < length; ++i) {
+                char c = string.charAt (i);
+                if ((c < '0') || (c > '9')) {
+                    return false;
+                }
+            }
+
+            // the longest strings might still be out of range
+            if ((length - start) >= 19) {
+                try {
+                    Long.parseLong (string);
+                } catch (NumberFormatException exception) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void writeValue (Object object) throws IOException {
+            if (object == null) {
+                writeByte (NULL);
+            } else if (object instanceof String) {
+                String string = (String) object;
+                if (isCanonicalLong (string)) {
+                    writeByte (NUMBER_STRING);
+                    writeZigzag (Long.parseLong (string));
+                } else {
+                    writeString (string, string.length () <= MAX_TABLE_STRING_LENGTH);
+                }
+            } else if (object instanceof BagObject) {
+                writeObject ((BagObject) object);
+            } else if (object instanceof BagArray) {
+                writeArray ((BagArray) object);
+            } else if (object instanceof Boolean) {
+                writeByte (((Boolean) object) ? TRUE : FALSE);
+            } else if ((object instanceof Double) || (object instanceof Float)) {
+                writeByte (DOUBLE);
+                writeDouble (((Number) object).doubleValue ());
+            } else {
+                // the rest of the natively stored types are integers
+                writeByte (LONG);
+                writeZigzag (((Number) object).longValue ());
+            }
+        }
+
+        void writeObject (BagObject bagObject) throws IOException {
+            String[] keys = bagObject.keys ();
+            writeByte (OBJECT);
+            writeVarint (keys.length);
+            for (String key : keys) {
+                writeString (key, true);
+                writeValue (bagObject.getObject (key));
+            }
+        }
+
+        void writeArray (BagArray bagArray) throws IOException {
+            int length = bagArray.getCount ();
+            writeByte (ARRAY);
+            writeVarint (length);
+            for (int i = 0; i < length; ++i) {
+                writeValue (bagArray.getObject (i));
+            }
+        }
+
+        void writeDocument (Bag bag) throws IOException {
+            for (byte b : MAGIC) {
+                writeByte (b);
+            }
+            writeByte (VERSION);
+            writeValue (bag);
+            flush ();
+        }
+    }
+
+    @Override
+    public void write (Bag bag, OutputStream outputStream) throws IOException {
+        new Encoder (outputStream).writeDocument (bag);
+        outputStream.flush ();
+    }
+
+    private void writeChars (Bag bag, Appendable appendable) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream ();
+        new Encoder (outputStream).writeDocument (bag);
+        appendable.append (new String (outputStream.toByteArray (), StandardCharsets.ISO_8859_1));
+    }
+
+    @Override
+    public void write (BagObject bagObject, Appendable appendable) throws IOException {
+        writeChars (bagObject, appendable);
+    }
+
+    @Override
+    public void write (BagArray bagArray, Appendable appendable) throws IOException {
+        writeChars (bagArray, appendable);
+    }
+
+    static {
+        FormatWriter.registerFormatWriter (MimeType.BAG, false, FormatWriterBinary::new);
+    }
+}
@@ -3,16 +3,72 @@ package com.brettonw.bag.formats;
 import com.brettonw.bag.BagArray;
 import com.brettonw.bag.BagObject;
 
+import java.io.IOException;
+
 public class FormatWriterJson extends FormatWriter {
     static final String[] CURLY_BRACKETS = { "{", "}" };
     static final String[] SQUARE_BRACKETS = { "[", "]" };
 
-    private String getJsonString (Object object) {
+    // the escape sequence for every ASCII character that can't appear bare in a JSON string, and
+    // null for the characters that can be copied as is
+    private static final String[] ESCAPES = new String[128];
+    static {
+        for (int c = 0; c < 0x20; ++c) {
+            ESCAPES[c] = String.format ("\\u%04x", c);
+        }
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\f'] = "\\f";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['\t'] = "\\t";
+    }
+
+    /**
+     * emit a string as a quoted JSON string, escaping the characters that need it. runs of
+     * characters that don't need escaping are copied in one shot, so a string with nothing to
+     * escape is a single append.
+     * @param string the raw string
+     * @param appendable the destination
+     * @throws IOException if the destination fails
+     */
+    static void writeString (String string, Appendable appendable) throws IOException {
+        appendable.append ('"');
+        int start = 0;
+        for (int i = 0, end = string.length (); i < end; ++i) {
+            char c = string.charAt (i);
+            if ((c < 128) && (ESCAPES[c] != null)) {
+                appendable.append (string, start, i).append (ESCAPES[c]);
+                start = i + 1;
+            }
+        }
+        appendable.append (string, start, string.length ()).append ('"');
+    }
+
+    private void writeValue (Object object, Appendable appendable) throws IOException {
         if (object != null) {
             switch (object.getClass ().getName ()) {
-                case "java.lang.String": return quote ((String) object);
-                case "com.brettonw.bag.BagObject": return write ((BagObject) object);
-                case "com.brettonw.bag.BagArray": return write ((BagArray) object);
+                case "java.lang.String": writeString ((String) object, appendable); return;
+                case "com.brettonw.bag.BagObject": write ((BagObject) object, appendable); return;
+                case "com.brettonw.bag.BagArray": write ((BagArray) object, appendable); return;
+
+                // natively stored values are written as bare JSON values
+                case "java.lang.Long": case "java.lang.Integer": case "java.lang.Short": case "java.lang.Byte":
+                case "java.lang.Boolean":
+                    appendable.append (object.toString ());
+                    return;
+
+                case "java.lang.Double": case "java.lang.Float": {
+                    // JSON has no representation for NaN or the infinities, so they are quoted
+                    double value = ((Number) object).doubleValue ();
+                    if (Double.isNaN (value) || Double.isInfinite (value)) {
+                        writeString (object.toString (), appendable);
+                    } else {
+                        appendable.append (object.toString ());
+                    }
+                    return;
+                }
 
                 // we omit the default case, because there should not be any other types stored in
                 // the Bag classes - as in, they would not make it into the container, as the
@@ -22,36 +78,34 @@ public class FormatWriterJson extends FormatWriter {
         // if we stored a null, we need to emit it as a value. This will only happen in the
         // array types, and is handled on the parsing side with a special case for reading
         // the bare value 'null' (not quoted)
-        return "null";
+        appendable.append ("null");
     }
 
     @Override
-    public String write (BagObject bagObject) {
-        StringBuilder stringBuilder = new StringBuilder ();
-        String separator = "";
-        String keys[] = bagObject.keys();
-        for (String key : keys) {
-            stringBuilder
-                    .append (separator)
-                    .append (quote (key))
-                    .append (":")
-                    .append (getJsonString (bagObject.getObject (key)));
-            separator = ",";
+    public void write (BagObject bagObject, Appendable appendable) throws IOException {
+        appendable.append ('{');
+        String keys[] = bagObject.keys ();
+        for (int i = 0; i < keys.length; ++i) {
+            if (i > 0) {
+                appendable.append (',');
+            }
+            writeString (keys[i], appendable);
+            appendable.append (':');
+            writeValue (bagObject.getObject (keys[i]), appendable);
         }
-        return enclose(stringBuilder.toString(), CURLY_BRACKETS);
+        appendable.append ('}');
     }
 
     @Override
-    public String write (BagArray bagArray) {
-        StringBuilder stringBuilder = new StringBuilder ();
-        String separator = "";
-        for (int i = 0, end = bagArray.getCount(); i < end; ++i) {
-            stringBuilder
-                    .append(separator)
-                    .append(getJsonString(bagArray.getObject(i)));
-            separator = ",";
+    public void write (BagArray bagArray, Appendable appendable) throws IOException {
+        appendable.append ('[');
+        for (int i = 0, end = bagArray.getCount (); i < end; ++i) {
+            if (i > 0) {
+                appendable.append (',');
+            }
+            writeValue (bagArray.getObject (i), appendable);
         }
-        return enclose(stringBuilder.toString(), SQUARE_BRACKETS);
+        appendable.append (']');
     }
 
     public FormatWriterJson () { super (); }
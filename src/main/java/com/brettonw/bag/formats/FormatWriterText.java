@@ -5,6 +5,8 @@ import com.brettonw.bag.BagObject;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+
 /**
  * The FormatWriterText is a configurable text format writer for any format that uses a divider
  * between entries, and a divider between pairs.
@@ -24,17 +26,14 @@ public class FormatWriterText extends FormatWriter {
     }
 
     @Override
-    public String write (BagArray bagArray) {
-        StringBuilder stringBuilder = new StringBuilder ();
+    public void write (BagArray bagArray, Appendable appendable) throws IOException {
         for (int i = 0, end = bagArray.getCount (); i < end; ++i) {
-            stringBuilder.append (bagArray.getString (i)).append (entrySeparator);
+            appendable.append (bagArray.getString (i)).append (entrySeparator);
         }
-        return stringBuilder.toString ();
     }
 
     @Override
-    public String write (BagObject bagObject) {
-        StringBuilder stringBuilder = new StringBuilder ();
+    public void write (BagObject bagObject, Appendable appendable) throws IOException {
         String[] keys = bagObject.keys ();
         for (String key : keys) {
             String value;
@@ -44,13 +43,12 @@ public class FormatWriterText extends FormatWriter {
             if (bagArray != null) {
                 for (int i = 0, end = bagArray.getCount (); i < end; ++i) {
                     value = bagArray.getString (i);
-                    stringBuilder.append (key).append (pairSeparator).append (value).append (entrySeparator);
+                    appendable.append (key).append (pairSeparator).append (value).append (entrySeparator);
                 }
             } else if ((value = bagObject.getString (key)) != null) {
-                stringBuilder.append (key).append (pairSeparator).append (value).append (entrySeparator);
+                appendable.append (key).append (pairSeparator).append (value).append (entrySeparator);
             }
         }
-        return stringBuilder.toString ();
     }
 
     static {
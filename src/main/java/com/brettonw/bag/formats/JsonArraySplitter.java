@@ -0,0 +1,168 @@
+package com.brettonw.bag.formats;
+
+import com.brettonw.bag.BagArray;
+
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * JsonArraySplitter reads a large top-level JSON array in parallel. A quick structural scan finds
+ * where each element of the root array starts and ends (tracking only nesting depth and quoted
+ * strings), and then the elements are parsed independently across the common ForkJoinPool, and
+ * assembled in their original order. All of the structural characters are in the ASCII range, so
+ * the scan works the same on chars and on UTF-8 bytes.
+ *
+ * The splitter only handles input it is sure about - anything unexpected (an element that isn't
+ * exactly one value, an unterminated array, etc.) returns null, so the caller can fall back to
+ * the sequential reader, which reports the error properly.
+ */
+abstract class JsonArraySplitter {
+    // marks an element that failed to parse
+    private static final Object FAILED = new Object ();
+
+    private int[] starts = new int[1024];
+    private int[] ends = new int[1024];
+    private int count;
+
+    abstract int length ();
+
+    abstract int at (int index);
+
+    // a reader over the input from start to end
+    abstract FormatReaderJson reader (int start, int end);
+
+    private void addElement (int start, int end) {
+        if (count == starts.length) {
+            int[] grown = new int[count * 2];
+            System.arraycopy (starts, 0, grown, 0, count);
+            starts = grown;
+            grown = new int[count * 2];
+            System.arraycopy (ends, 0, grown, 0, count);
+            ends = grown;
+        }
+        starts[count] = start;
+        ends[count++] = end;
+    }
+
+    // find the element boundaries, returns false if the input isn't a simple root array
+    private boolean scan () {
+        int length = length ();
+        int i = 0;
+        int c = 0;
+        while ((i < length) && (((c = at (i)) == ' ') || (c == '\t') || (c == '\r') || (c == '\n'))) {
+            ++i;
+        }
+        if ((i == length) || (c != '[')) {
+            return false;
+        }
+
+        // the rules for escapes and the end of quoted strings match the JsonPullParser
+        int depth = 0;
+        boolean quoted = false;
+        int start = ++i;
+        for (; i < length; ++i) {
+            c = at (i);
+            if (c == '\\') {
+                ++i;
+            } else if (quoted) {
+                quoted = (c != '"') && (c != '\n');
+            } else {
+                switch (c) {
+                    case '"':
+                        quoted = true;
+                        break;
+                    case '{': case '[':
+                        ++depth;
+                        break;
+                    case '}':
+                        --depth;
+                        break;
+                    case ']':
+                        if (depth-- == 0) {
+                            addElement (start, i);
+                            return true;
+                        }
+                        break;
+                    case ',':
+                        if (depth == 0) {
+                            addElement (start, i);
+                            start = i + 1;
+                        }
+                        break;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Object readElement (int index, boolean nativeValues) {
+        // the elements are read quietly, any error is reported by the sequential reader when the
+        // caller falls back to it
+        FormatReaderJson reader = reader (starts[index], ends[index]);
+        reader.setNativeValues (nativeValues).quiet = true;
+        return reader.readSingleValue (FAILED);
+    }
+
+    /**
+     * @param nativeValues
+     * @return the array, or null if the input should be read sequentially instead
+     */
+    BagArray read (boolean nativeValues) {
+        if (! scan ()) {
+            return null;
+        }
+
+        // an empty array is scanned as one blank element, and is quicker to read sequentially
+        Object[] values = new Object[count];
+        IntStream.range (0, count).parallel ().forEach (i -> values[i] = readElement (i, nativeValues));
+
+        BagArray bagArray = new BagArray (count).setNativeValues (nativeValues);
+        for (Object value : values) {
+            if (value == FAILED) {
+                return null;
+            }
+            bagArray.add (value);
+        }
+        return bagArray;
+    }
+
+    static JsonArraySplitter of (String input) {
+        return new JsonArraySplitter () {
+            @Override
+            int length () {
+                return input.length ();
+            }
+
+            @Override
+            int at (int index) {
+                return input.charAt (index);
+            }
+
+            @Override
+            FormatReaderJson reader (int start, int end) {
+                return new FormatReaderJson (input.substring (start, end));
+            }
+        };
+    }
+
+    static JsonArraySplitter of (ByteBuffer input) {
+        return new JsonArraySplitter () {
+            @Override
+            int length () {
+                return input.limit ();
+            }
+
+            @Override
+            int at (int index) {
+                return input.get (index) & 0xff;
+            }
+
+            @Override
+            FormatReaderJson reader (int start, int end) {
+                ByteBuffer element = input.duplicate ();
+                element.limit (end).position (start);
+                return new FormatReaderJson (element);
+            }
+        };
+    }
+}
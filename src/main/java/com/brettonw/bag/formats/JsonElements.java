@@ -0,0 +1,111 @@
+package com.brettonw.bag.formats;
+
+import com.brettonw.bag.BagObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * JsonElements reads the BagObject elements of a top level JSON array (or of a newline-delimited
+ * JSON sequence) one at a time, so only the current element is ever held in memory. Elements
+ * that aren't objects are skipped. Iteration stops at the end of the input, or at the first error
+ * in it, which is logged.
+ */
+public class JsonElements implements Iterator<BagObject>, Closeable {
+    private static final Logger log = LogManager.getLogger (JsonElements.class);
+
+    private final ReadableByteChannel channel;
+    private final FormatReaderJson reader;
+    private BagObject nextElement;
+    private boolean done;
+
+    /**
+     * @param channel a channel of UTF-8 bytes, which is closed when this is closed
+     * @param valueSequence true if the input is a sequence of values (newline-delimited JSON),
+     *                      false if it is a single array
+     */
+    public JsonElements (ReadableByteChannel channel, boolean valueSequence) {
+        this.channel = channel;
+        reader = new FormatReaderJson (channel);
+        reader.setValueSequence (valueSequence);
+        if ((! valueSequence) && (reader.next () != JsonEvent.START_ARRAY)) {
+            if (reader.getEvent () != JsonEvent.ERROR) {
+                log.error ("Input is not an array");
+            }
+            done = true;
+        }
+    }
+
+    private void readNextElement () {
+        while ((nextElement == null) && (! done)) {
+            switch (reader.next ()) {
+                case START_OBJECT:
+                    nextElement = (BagObject) reader.readBag (new BagObject ());
+                    done = (nextElement == null);
+                    break;
+
+                case START_ARRAY:
+                    reader.skip ();
+                    break;
+
+                case VALUE:
+                case NULL:
+                    break;
+
+                case END_ARRAY:
+                case END:
+                case ERROR:
+                default:
+                    done = true;
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext () {
+        readNextElement ();
+        return (nextElement != null);
+    }
+
+    @Override
+    public BagObject next () {
+        if (hasNext ()) {
+            BagObject element = nextElement;
+            nextElement = null;
+            return element;
+        }
+        throw new NoSuchElementException ();
+    }
+
+    /**
+     * @return a sequential stream over the remaining elements, closing the stream closes this
+     */
+    public Stream<BagObject> stream () {
+        return StreamSupport.stream (Spliterators.spliteratorUnknownSize (this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose (() -> {
+                    try {
+                        close ();
+                    } catch (IOException exception) {
+                        throw new UncheckedIOException (exception);
+                    }
+                });
+    }
+
+    @Override
+    public void close () throws IOException {
+        done = true;
+        nextElement = null;
+        channel.close ();
+    }
+}
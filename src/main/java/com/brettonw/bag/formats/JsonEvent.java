@@ -0,0 +1,16 @@
+package com.brettonw.bag.formats;
+
+/**
+ * the events reported by a JsonPullParser as it walks the input
+ */
+public enum JsonEvent {
+    START_OBJECT,
+    END_OBJECT,
+    START_ARRAY,
+    END_ARRAY,
+    KEY,
+    VALUE,
+    NULL,
+    END,
+    ERROR
+}
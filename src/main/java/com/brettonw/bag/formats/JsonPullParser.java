@@ -0,0 +1,324 @@
+package com.brettonw.bag.formats;
+
+// JsonPullParser reports the structure of a JSON-ish input as a sequence of events, without
+// building any BagObject or BagArray. It implements the same simplified grammar as the tree
+// readers (bare values are allowed wherever a string is expected, any value spelled "null" is a
+// null, and escape sequences are decoded in quoted strings only), and the tree readers in FormatReaderJson
+// are built on top of it.
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+public class JsonPullParser extends FormatReaderParsed {
+    // what the parser expects to see next
+    private enum State {
+        ROOT,
+        OBJECT_FIRST,
+        OBJECT_COLON,
+        OBJECT_NEXT,
+        ARRAY_FIRST,
+        ARRAY_NEXT,
+        DONE
+    }
+
+    private State state = State.ROOT;
+    private boolean valueSequence;
+    private JsonEvent event;
+    private String string;
+    private boolean quoted;
+
+    // the stack of open containers, true for objects and false for arrays
+    private boolean[] containers = new boolean[16];
+    private int depth;
+
+    protected JsonPullParser () {}
+
+    public JsonPullParser (String input) {
+        super (input);
+    }
+
+    /**
+     * read JSON directly from a channel of UTF-8 bytes
+     * @param channel
+     */
+    public JsonPullParser (ReadableByteChannel channel) {
+        this (new TextSourceUtf8 (channel));
+    }
+
+    /**
+     * read JSON directly from a buffer of UTF-8 bytes, such as a mapped file
+     * @param input
+     */
+    public JsonPullParser (ByteBuffer input) {
+        this (new TextSourceUtf8 (input));
+    }
+
+    public JsonPullParser (TextSource source) {
+        super (source);
+    }
+
+    /**
+     * by default the parser reads a single root value and then reports END. a value sequence is
+     * any number of root values one after another, separated only by white space, as in
+     * newline-delimited JSON. END is reported when the input is exhausted.
+     * @param valueSequence
+     * @return this, for chaining
+     */
+    public JsonPullParser setValueSequence (boolean valueSequence) {
+        this.valueSequence = valueSequence;
+        return this;
+    }
+
+    public boolean isValueSequence () {
+        return valueSequence;
+    }
+
+    /**
+     * @return the most recent event returned by next
+     */
+    public JsonEvent getEvent () {
+        return event;
+    }
+
+    /**
+     * @return the text of the most recent KEY or VALUE event
+     */
+    public String getString () {
+        return string;
+    }
+
+    /**
+     * @return true if the text of the most recent KEY or VALUE event was quoted in the input
+     */
+    public boolean isQuoted () {
+        return quoted;
+    }
+
+    /**
+     * @return the number of containers currently open
+     */
+    public int getDepth () {
+        return depth;
+    }
+
+    /**
+     * advance to the next event in the input. once the root value is complete the parser returns
+     * END, and once an error has been reported it returns ERROR, on every subsequent call.
+     * @return the event
+     */
+    public JsonEvent next () {
+        return event = (error ? JsonEvent.ERROR : readEvent ());
+    }
+
+    /**
+     * if the most recent event opened an object or array, consume everything up to and including
+     * the matching close, so a caller can pass over values it isn't interested in.
+     * @return the last event consumed
+     */
+    public JsonEvent skip () {
+        if ((event == JsonEvent.START_OBJECT) || (event == JsonEvent.START_ARRAY)) {
+            int target = depth - 1;
+            while ((depth > target) && (next () != JsonEvent.ERROR) && (event != JsonEvent.END));
+        }
+        return event;
+    }
+
+    private JsonEvent readEvent () {
+        switch (state) {
+            case ROOT: {
+                // an empty input is just the end of it
+                JsonEvent value = readValue ();
+                return (value != null) ? value : end (JsonEvent.END);
+            }
+
+            case OBJECT_FIRST:
+                // <Object> ::= { } | { <Members> }
+                return readKey () ? JsonEvent.KEY : close ('}', JsonEvent.END_OBJECT);
+
+            case OBJECT_COLON:
+                // <Pair> ::= <String> : <Value>
+                return (require (':') && require (readValue () != null, "Valid value")) ? event : JsonEvent.ERROR;
+
+            case OBJECT_NEXT:
+                // <Members> ::= <Pair> | <Pair> , <Members>
+                if (expect (',')) {
+                    return require (readKey (), "Valid pair") ? JsonEvent.KEY : JsonEvent.ERROR;
+                }
+                return close ('}', JsonEvent.END_OBJECT);
+
+            case ARRAY_FIRST: {
+                // <Array> :: [ ] | [ <Elements> ]
+                JsonEvent value = readValue ();
+                return (value != null) ? value : close (']', JsonEvent.END_ARRAY);
+            }
+
+            case ARRAY_NEXT:
+                // <Elements> ::= <Value> | <Value> , <Elements>
+                if (expect (',')) {
+                    return require (readValue () != null, "Valid value") ? event : JsonEvent.ERROR;
+                }
+                return close (']', JsonEvent.END_ARRAY);
+
+            case DONE:
+            default:
+                return JsonEvent.END;
+        }
+    }
+
+    private JsonEvent end (JsonEvent result) {
+        state = State.DONE;
+        return result;
+    }
+
+    private void afterValue () {
+        // the state after a complete value depends on the container that holds it
+        state = (depth == 0) ? (valueSequence ? State.ROOT : State.DONE) : (containers[depth - 1] ? State.OBJECT_NEXT : State.ARRAY_NEXT);
+    }
+
+    private void open (boolean isObject) {
+        if (depth == containers.length) {
+            boolean[] grown = new boolean[depth * 2];
+            System.arraycopy (containers, 0, grown, 0, depth);
+            containers = grown;
+        }
+        containers[depth++] = isObject;
+        state = isObject ? State.OBJECT_FIRST : State.ARRAY_FIRST;
+    }
+
+    private JsonEvent close (char c, JsonEvent closeEvent) {
+        if (require (c)) {
+            --depth;
+            afterValue ();
+            return closeEvent;
+        }
+        return JsonEvent.ERROR;
+    }
+
+    private boolean readKey () {
+        String key = readString ();
+        if ((key != null) && (key.length () > 0)) {
+            string = key;
+            state = State.OBJECT_COLON;
+            return true;
+        }
+        return false;
+    }
+
+    // reads the start of a value, and sets "event" to what was found. returns null (and leaves
+    // the state alone) if there is no value at the current position.
+    private JsonEvent readValue () {
+        // <Value> ::= <String> | <Object> | <Array>
+        consumeWhiteSpace ();
+        if (check ()) {
+            switch (source.peek ()) {
+                case '{':
+                    source.advance ();
+                    open (true);
+                    return event = JsonEvent.START_OBJECT;
+
+                case '[':
+                    source.advance ();
+                    open (false);
+                    return event = JsonEvent.START_ARRAY;
+
+                case '"':
+                default: {
+                    String value = readString ();
+                    if (value != null) {
+                        string = value;
+                        afterValue ();
+
+                        // special case for "null"
+                        return event = (value.equalsIgnoreCase ("null") ? JsonEvent.NULL : JsonEvent.VALUE);
+                    }
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static final boolean BARE_VALUE_STOP_CHARS[] = TextSource.stopChars (" \u00a0\t\r\n:{}[]\",");
+    private static final boolean QUOTED_STRING_STOP_CHARS[] = TextSource.stopChars ("\n\"");
+
+    private String readString () {
+        // " chars " | <chars>
+        String result = null;
+        if (quoted = expect('"')) {
+            // digest the string, and be sure to eat the end quote. using the escape mechanism is
+            // like a free pass for the next character, and the escapes are only decoded if the
+            // string actually contains any
+            result = source.readUntil (QUOTED_STRING_STOP_CHARS, true);
+            if (result.indexOf ('\\') >= 0) {
+                result = unescape (result);
+            }
+            source.advance ();
+        } else if (check ()) {
+            // technically, we're being sloppy allowing bare values where quoted strings are
+            // expected, but it's part of the simplified structure we support. This allows us to
+            // read valid JSON files without handling every single case.
+            result = source.readUntil (BARE_VALUE_STOP_CHARS, true);
+
+            // capture the result if we actually consumed some characters
+            if (result.length () == 0) {
+                result = null;
+            }
+        }
+        return result;
+    }
+
+    // the character each single character escape sequence stands for, indexed by the character
+    // after the backslash. zero marks the characters that aren't a simple escape.
+    private static final char[] UNESCAPES = new char[128];
+    static {
+        UNESCAPES['"'] = '"';
+        UNESCAPES['\\'] = '\\';
+        UNESCAPES['/'] = '/';
+        UNESCAPES['b'] = '\b';
+        UNESCAPES['f'] = '\f';
+        UNESCAPES['n'] = '\n';
+        UNESCAPES['r'] = '\r';
+        UNESCAPES['t'] = '\t';
+    }
+
+    /**
+     * decode the JSON escape sequences in a string, copying the runs between them in one shot.
+     * malformed escapes are kept as written.
+     * @param string a string containing at least one backslash
+     * @return the decoded string
+     */
+    static String unescape (String string) {
+        int length = string.length ();
+        StringBuilder stringBuilder = new StringBuilder (length);
+        int start = 0;
+        for (int i = string.indexOf ('\\'); (i >= 0) && (i < (length - 1)); i = string.indexOf ('\\', start)) {
+            stringBuilder.append (string, start, i);
+            char c = string.charAt (i + 1);
+            int hex;
+            if ((c < 128) && (UNESCAPES[c] != 0)) {
+                stringBuilder.append (UNESCAPES[c]);
+                start = i + 2;
+            } else if ((c == 'u') && ((i + 6) <= length) && ((hex = hexValue (string, i + 2, i + 6)) >= 0)) {
+                stringBuilder.append ((char) hex);
+                start = i + 6;
+            } else {
+                stringBuilder.append ('\\').append (c);
+                start = i + 2;
+            }
+        }
+        return stringBuilder.append (string, start, length).toString ();
+    }
+
+    // the value of a run of hex digits, or -1 if any of them isn't a hex digit
+    private static int hexValue (String string, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; ++i) {
+            int digit = Character.digit (string.charAt (i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+}
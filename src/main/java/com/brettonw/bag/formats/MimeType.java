@@ -20,6 +20,8 @@ public class MimeType {
     public static final String TEXT = "application/text";
     public static final String PROP = "text/x-java-properties";
     public static final String FIXED = "text/fixed";
+    public static final String NDJSON = "application/x-ndjson";
+    public static final String BAG = "application/x-bag";
 
     public static final String DEFAULT = JSON;
 
@@ -0,0 +1,75 @@
+package com.brettonw.bag.formats;
+
+/**
+ * TextSource is the character-level input a parsed format reader walks over. It hides whether
+ * the text is already in memory as a String, or is being decoded on the fly from a stream of
+ * bytes, so the grammar in the reader only ever deals with "the current character", white space,
+ * and tokens.
+ */
+abstract public class TextSource {
+    /**
+     * the value returned by peek when there is no more input
+     */
+    public static final int END = -1;
+
+    // the size of the tables used to describe stop characters, large enough to cover the
+    // Latin-1 range (and therefore the non-breaking space we treat as white space)
+    public static final int STOP_CHARS_SIZE = 256;
+
+    protected int lineNumber = 1;
+
+    /**
+     * build a stop character table for use with readUntil
+     * @param stopChars a string containing all of the characters that should end a token
+     * @return a table indexed by character, true where the character ends a token
+     */
+    public static boolean[] stopChars (String stopChars) {
+        boolean[] table = new boolean[STOP_CHARS_SIZE];
+        for (int i = 0, end = stopChars.length (); i < end; ++i) {
+            table[stopChars.charAt (i)] = true;
+        }
+        return table;
+    }
+
+    /**
+     * @return the current character, or END if the input is exhausted
+     */
+    abstract public int peek ();
+
+    /**
+     * move past the current character, does nothing if the input is exhausted
+     */
+    abstract public void advance ();
+
+    /**
+     * consume white space (space, tab, non-breaking space, carriage return, and new line),
+     * counting lines as we go
+     */
+    abstract public void skipWhiteSpace ();
+
+    /**
+     * consume characters until one of the stop characters (or the end of the input) is reached.
+     * the stop character itself is not consumed.
+     * @param stopChars a table built with stopChars
+     * @param escapes whether a backslash is a free pass for the character that follows it
+     * @return the consumed characters, possibly empty
+     */
+    abstract public String readUntil (boolean[] stopChars, boolean escapes);
+
+    /**
+     * @return a best-effort copy of the line currently being read, for error reporting
+     */
+    abstract public String getLine ();
+
+    /**
+     * @return the offset of the current character from the start of the line returned by getLine
+     */
+    abstract public int getColumn ();
+
+    /**
+     * @return the line number of the current character, starting at 1
+     */
+    public int getLineNumber () {
+        return lineNumber;
+    }
+}
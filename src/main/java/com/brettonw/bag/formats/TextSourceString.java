@@ -0,0 +1,75 @@
+package com.brettonw.bag.formats;
+
+/**
+ * A TextSource over text that is already in memory.
+ */
+public class TextSourceString extends TextSource {
+    private final String input;
+    private final int inputLength;
+    private int index;
+    private int lastLineIndex;
+
+    public TextSourceString (String input) {
+        this.input = (input != null) ? input : "";
+        inputLength = this.input.length ();
+        index = 0;
+        lastLineIndex = 0;
+    }
+
+    @Override
+    public int peek () {
+        return (index < inputLength) ? input.charAt (index) : END;
+    }
+
+    @Override
+    public void advance () {
+        if (index < inputLength) {
+            ++index;
+        }
+    }
+
+    @Override
+    public void skipWhiteSpace () {
+        while (index < inputLength) {
+            switch (input.charAt (index)) {
+                // tab, space, nbsp, and carriage return
+                case '\t': case ' ': case '\u00a0': case '\r':
+                    ++index;
+                    break;
+                case '\n':
+                    ++index;
+                    ++lineNumber;
+                    lastLineIndex = index;
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    @Override
+    public String readUntil (boolean[] stopChars, boolean escapes) {
+        int start = index;
+        char c;
+        while ((index < inputLength) && (((c = input.charAt (index)) >= STOP_CHARS_SIZE) || (! stopChars[c]))) {
+            // using the escape mechanism is like a free pass for the next character
+            index += (escapes && (c == '\\')) ? 2 : 1;
+        }
+        index = Math.min (index, inputLength);
+        return input.substring (start, index);
+    }
+
+    @Override
+    public String getLine () {
+        int lineEnd = index;
+        while ((lineEnd < inputLength) && (input.charAt (lineEnd) != '\n')) {
+            ++lineEnd;
+        }
+        return input.substring (lastLineIndex, lineEnd);
+    }
+
+    @Override
+    public int getColumn () {
+        return index - lastLineIndex;
+    }
+}
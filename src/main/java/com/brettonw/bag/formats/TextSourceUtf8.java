@@ -0,0 +1,275 @@
+package com.brettonw.bag.formats;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A TextSource that decodes UTF-8 directly from a channel through a small rolling buffer, so the
+ * text never has to exist in memory as a whole. Every character that has meaning to the grammar
+ * (white space and structural punctuation) is in the ASCII range, and UTF-8 guarantees that the
+ * bytes of a multi-byte sequence are never in that range, so tokens are scanned as raw bytes and
+ * only decoded into a String once they are complete.
+ */
+public class TextSourceUtf8 extends TextSource {
+    private static final Logger log = LogManager.getLogger (TextSourceUtf8.class);
+
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    // the lead byte of the two-byte UTF-8 sequences that cover U+0080 - U+00FF
+    private static final int LATIN_1_LEAD = 0xc2;
+    private static final int LATIN_1_LEAD_HIGH = 0xc3;
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer;
+    private boolean endOfChannel;
+
+    // the absolute offset of the start of the buffer within the input, and of the current line
+    private long bufferOffset;
+    private long lineOffset;
+
+    // scratch space for tokens that straddle a buffer refill
+    private byte[] scratch;
+    private int scratchCount;
+
+    /**
+     * @param channel the source of bytes, which is read incrementally
+     */
+    public TextSourceUtf8 (ReadableByteChannel channel) {
+        this (channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param input the whole input, already in memory or mapped from a file. it is read in place
+     *              from its current position to its limit, and is not modified.
+     */
+    public TextSourceUtf8 (ByteBuffer input) {
+        channel = null;
+        buffer = input.slice ();
+        endOfChannel = true;
+        bufferOffset = 0;
+        lineOffset = 0;
+        scratch = new byte[64];
+        scratchCount = 0;
+    }
+
+    /**
+     * @param channel the source of bytes, which is read incrementally
+     * @param bufferSize the size of the rolling buffer
+     */
+    public TextSourceUtf8 (ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        buffer = ByteBuffer.allocate (bufferSize);
+        buffer.flip ();
+        endOfChannel = (channel == null);
+        bufferOffset = 0;
+        lineOffset = 0;
+        scratch = new byte[64];
+        scratchCount = 0;
+    }
+
+    // make sure there are at least "need" bytes available from the current position, shifting
+    // the unread bytes to the front of the buffer and reading more from the channel. returns
+    // false if the input can't supply that many bytes.
+    private boolean fill (int need) {
+        while (buffer.remaining () < need) {
+            if (endOfChannel) {
+                return false;
+            }
+            bufferOffset += buffer.position ();
+            buffer.compact ();
+
+            // a buffer smaller than the longest sequence we need to see at once has to grow, or
+            // there would be no room to read into
+            if (buffer.capacity () < need) {
+                ByteBuffer grown = ByteBuffer.allocate (Math.max (need, buffer.capacity () * 2));
+                buffer.flip ();
+                grown.put (buffer);
+                buffer = grown;
+            }
+            try {
+                // there is always room in the buffer here, so a blocking channel never reads
+                // nothing. one that does (a non-blocking channel) isn't supported, and we treat
+                // it as the end of the input rather than spinning on it
+                int read = channel.read (buffer);
+                if (read == 0) {
+                    log.error ("Channel returned no data");
+                }
+                endOfChannel = (read <= 0);
+            } catch (IOException exception) {
+                log.error (exception);
+                endOfChannel = true;
+            }
+            buffer.flip ();
+        }
+        return true;
+    }
+
+    private int byteAt (int position) {
+        return buffer.get (position) & 0xff;
+    }
+
+    // the number of bytes in a UTF-8 sequence, given its lead byte
+    private static int sequenceLength (int lead) {
+        return (lead < 0x80) ? 1 : (lead < 0xe0) ? 2 : (lead < 0xf0) ? 3 : 4;
+    }
+
+    @Override
+    public int peek () {
+        if (fill (1)) {
+            int lead = byteAt (buffer.position ());
+            if (lead < 0x80) {
+                return lead;
+            }
+
+            // decode the full sequence, returning the first UTF-16 unit of it
+            int length = sequenceLength (lead);
+            if (fill (length)) {
+                int position = buffer.position ();
+                int codePoint = lead & (0xff >> (length + 1));
+                for (int i = 1; i < length; ++i) {
+                    codePoint = (codePoint << 6) | (byteAt (position + i) & 0x3f);
+                }
+                return Character.isBmpCodePoint (codePoint) ? codePoint : Character.highSurrogate (codePoint);
+            }
+            return '\ufffd';
+        }
+        return END;
+    }
+
+    @Override
+    public void advance () {
+        if (fill (1)) {
+            int length = sequenceLength (byteAt (buffer.position ()));
+            fill (length);
+            buffer.position (buffer.position () + Math.min (length, buffer.remaining ()));
+        }
+    }
+
+    @Override
+    public void skipWhiteSpace () {
+        while (fill (1)) {
+            int position = buffer.position ();
+            switch (byteAt (position)) {
+                // tab, space, and carriage return
+                case '\t': case ' ': case '\r':
+                    buffer.position (position + 1);
+                    break;
+                case '\n':
+                    buffer.position (position + 1);
+                    ++lineNumber;
+                    lineOffset = bufferOffset + position + 1;
+                    break;
+                case LATIN_1_LEAD:
+                    // nbsp
+                    if (fill (2) && (byteAt (buffer.position () + 1) == 0xa0)) {
+                        buffer.position (buffer.position () + 2);
+                        break;
+                    }
+                    return;
+                default:
+                    return;
+            }
+        }
+    }
+
+    private void appendScratch (int start, int end) {
+        int count = end - start;
+        if (count > 0) {
+            if ((scratchCount + count) > scratch.length) {
+                byte[] grown = new byte[Math.max (scratch.length * 2, scratchCount + count)];
+                System.arraycopy (scratch, 0, grown, 0, scratchCount);
+                scratch = grown;
+            }
+            ByteBuffer run = buffer.duplicate ();
+            run.limit (end).position (start);
+            run.get (scratch, scratchCount, count);
+            scratchCount += count;
+        }
+    }
+
+    @Override
+    public String readUntil (boolean[] stopChars, boolean escapes) {
+        scratchCount = 0;
+        int start = buffer.position ();
+        int position = start;
+        boolean freePass = false;
+        while (true) {
+            // refill the buffer if we've run off the end of it, saving the run we have so far
+            if (position == buffer.limit ()) {
+                appendScratch (start, position);
+                buffer.position (position);
+                boolean more = fill (1);
+                start = position = buffer.position ();
+                if (! more) {
+                    break;
+                }
+            }
+
+            int b = byteAt (position);
+            if (freePass) {
+                // using the escape mechanism is like a free pass for the next character
+                freePass = false;
+            } else if (b < 0x80) {
+                if (stopChars[b]) {
+                    break;
+                }
+                freePass = escapes && (b == '\\');
+            } else if ((b == LATIN_1_LEAD) || (b == LATIN_1_LEAD_HIGH)) {
+                // characters in the Latin-1 range can be stop characters (like nbsp), so we need
+                // to see the second byte of the sequence
+                if ((position + 1) == buffer.limit ()) {
+                    appendScratch (start, position);
+                    buffer.position (position);
+                    fill (2);
+                    start = position = buffer.position ();
+                }
+                if ((position + 1) < buffer.limit ()) {
+                    if (stopChars[((b & 0x1f) << 6) | (byteAt (position + 1) & 0x3f)]) {
+                        break;
+                    }
+                    ++position;
+                }
+            }
+            ++position;
+        }
+        buffer.position (position);
+
+        // build the string, straight from the buffer if the token didn't cross a refill
+        if ((scratchCount == 0) && buffer.hasArray ()) {
+            return new String (buffer.array (), buffer.arrayOffset () + start, position - start, StandardCharsets.UTF_8);
+        }
+        appendScratch (start, position);
+        return new String (scratch, 0, scratchCount, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String getLine () {
+        // the start of the line might have been discarded with an earlier buffer, so we show as
+        // much of it as we still have
+        int start = (int) Math.max (0, lineOffset - bufferOffset);
+        int end = buffer.position ();
+        while ((end < buffer.limit ()) && (byteAt (end) != '\n')) {
+            ++end;
+        }
+        ByteBuffer line = buffer.duplicate ();
+        line.limit (end).position (start);
+        byte[] bytes = new byte[end - start];
+        line.get (bytes);
+        return new String (bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int getColumn () {
+        int start = (int) Math.max (0, lineOffset - bufferOffset);
+        ByteBuffer line = buffer.duplicate ();
+        line.limit (buffer.position ()).position (start);
+        byte[] bytes = new byte[line.remaining ()];
+        line.get (bytes);
+        return new String (bytes, StandardCharsets.UTF_8).length ();
+    }
+}
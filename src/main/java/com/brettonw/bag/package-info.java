@@ -25,20 +25,18 @@
  * In the bag types, type assignment is performed lazily on extraction. The design presumes the end
  * user knows what they are expecting to get.
  * <p>
- * <strong>Storing Strings</strong><br>
- * Because the internal storage mechanism for primitive types is string based, and the preferred
- * interchange is JSON, there is a challenge when storing strings that have quotes in them. The JSON
- * standard supports escaped characters (\"), and so does the BagObject.
+ * Numbers and booleans are stored as strings by default. Bags created with
+ * <code>setNativeValues (true)</code> keep them in their native form instead, so the typed getters
+ * don't have to parse them, and they are written to JSON as bare numbers and booleans.
  * <p>
- * By design, we have chosen not to do any kind of transformation when storing strings, which means
- * that attempting to store strings that have un-escaped quotes in them, and then serializing the
- * object, will result in failure to parse on deserialization. It is left to the user to encode
- * strings containing quotes in them in a manner that makes sense for their application.
+ * <strong>Storing Strings</strong><br>
+ * Strings are stored exactly as they are given. When a bag is written as JSON, quotes, backslashes,
+ * and control characters in strings are escaped, and when JSON is read, the escape sequences in
+ * quoted strings (including unicode escapes) are decoded, so any string, including one that
+ * holds JSON text, will round trip. Bare (unquoted) values are returned as written.
  * <p>
- * In a special case, some users have reported failures when trying to store JSON strings into a
- * BagObject. This is not a supported usage for the reasons outlined above. Users interested in
- * storing JSON should consider simply storing the populated BagObject represented by the JSON
- * string, or serializing the structure directly into the BagObject format.
+ * Users interested in storing JSON should still consider simply storing the populated BagObject
+ * represented by the JSON string, or serializing the structure directly into the BagObject format.
  * <p>
  * <strong>Hierarchical Indexing</strong><br>
  * Hierarchical indexing is an option when BagObjects are nested inside of other BagObjects. The key
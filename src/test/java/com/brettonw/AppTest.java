@@ -14,6 +14,7 @@ import org.junit.runners.Suite;
         SortKeyTest.class,
         SelectKeyTest.class,
         BagArrayTest.class,
+        IndexedBagArrayTest.class,
         BagObjectTest.class,
         KeyTest.class,
         FromUrlTest.class,
@@ -24,6 +25,8 @@ import org.junit.runners.Suite;
         FormatReaderCompositeTest.class,
         FormatReaderJsonTest.class,
         FormatReaderTableTest.class,
+        FormatReaderBinaryTest.class,
+        JsonPullParserTest.class,
 
         FormatWriterTest.class,
         FormatWriterTextTest.class,
@@ -32,6 +35,8 @@ import org.junit.runners.Suite;
         SourceAdapterTest.class,
         SourceAdapterHttpTest.class,
         SourceAdapterReaderTest.class,
+        SourceAdapterStreamTest.class,
+        SourceAdapterMappedTest.class,
         MimeTypeTest.class
 })
 
@@ -9,8 +9,12 @@ import org.apache.logging.log4j.Logger;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.Random;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
 
@@ -342,4 +346,336 @@ public class BagArrayTest {
         AppTest.report (bagArray.getAndRemove (1000), null, "Test getAndRemove with bogus index");
 
     }
+
+    @Test
+    public void testElements () {
+        File testFile = new File ("data", "UCS_Satellite_Database_2-1-14.json");
+        BagArray bagArray = BagArrayFrom.file (testFile);
+        try (Stream<BagObject> elements = BagArrayFrom.elements (testFile)) {
+            Iterator<BagObject> iterator = elements.iterator ();
+            int count = 0;
+            while (iterator.hasNext ()) {
+                BagObject element = iterator.next ();
+                if (! element.equals (bagArray.getBagObject (count))) {
+                    break;
+                }
+                ++count;
+            }
+            AppTest.report (count, bagArray.getCount (), "Elements match the array");
+        }
+
+        // newline-delimited JSON, with a non-object element that is skipped
+        String ndjson = "{\"a\":1}\n{\"a\":2}\r\n\n[1,2]\n{\"a\":3,\"b\":{\"c\":4}}\n";
+        try (Stream<BagObject> elements = BagArrayFrom.elements (new ByteArrayInputStream (ndjson.getBytes (StandardCharsets.UTF_8)), MimeType.NDJSON)) {
+            AppTest.report (elements.mapToInt (element -> element.getInteger ("a")).sum (), 6, "Elements from newline-delimited JSON");
+        }
+        AppTest.report (BagArrayFrom.string (ndjson, MimeType.NDJSON).getCount (), 4, "Array from newline-delimited JSON");
+
+        // an object is not an array of elements
+        try (Stream<BagObject> elements = BagArrayFrom.elements (new File ("data", "JohnF.json"))) {
+            AppTest.report (elements.count (), 0L, "No elements from an object");
+        }
+    }
+
+    @Test
+    public void testNativeValues () {
+        BagArray bagArray = new BagArray ().setNativeValues (true).add (3).add (1.5).add (false).add ("2").add (null);
+        AppTest.report (bagArray.getObject (0), 3, "BagArray - native integer is stored as is");
+        AppTest.report (bagArray.getLong (0), 3L, "BagArray - native long getter");
+        AppTest.report (bagArray.getDouble (1), 1.5, "BagArray - native double getter");
+        AppTest.report (bagArray.getBoolean (2), false, "BagArray - native boolean getter");
+        AppTest.report (bagArray.getString (1), "1.5", "BagArray - native value as string");
+        AppTest.report (bagArray.getInteger (3), 2, "BagArray - string values are still parsed");
+        AppTest.report (bagArray.toString (), "[3,1.5,false,\"2\",null]", "BagArray - native values are written as bare values");
+
+        BagArray numbers = new BagArray ().setNativeValues (true).add (10).add (9.5).add ("11");
+        numbers.sort (new SortKey ().setType (SortType.NUMERIC));
+        AppTest.report (numbers.toString (), "[9.5,10,\"11\"]", "BagArray - sort mixed native and string values");
+    }
+
+    @Test
+    public void testParallel () {
+        int count = BagArray.PARALLEL_THRESHOLD * 2;
+        BagArray bagArray = new BagArray (count);
+        Random random = new Random (1);
+        for (int i = 0; i < count; ++i) {
+            bagArray.add (new BagObject ()
+                    .put ("id", i)
+                    .put ("group", i % 7)
+                    .put ("score", random.nextInt (1000))
+            );
+        }
+
+        AppTest.report (bagArray.parallelMap (object -> ((BagObject) object).getInteger ("score")),
+                bagArray.map (object -> ((BagObject) object).getInteger ("score")), "parallel map matches map");
+        AppTest.report (bagArray.parallelFilter (object -> ((BagObject) object).getInteger ("score") < 100),
+                bagArray.filter (object -> ((BagObject) object).getInteger ("score") < 100), "parallel filter matches filter");
+
+        BagArray queried = bagArray.query (Exprs.equality ("group", "3"), null);
+        boolean ordered = true;
+        for (int i = 0; i < queried.getCount (); ++i) {
+            ordered = ordered && (queried.getInteger (i + "/id") == (i * 7) + 3);
+        }
+        AppTest.report (queried.getCount (), (count + 3) / 7, "query finds every match");
+        AppTest.report (ordered, true, "query results are in order");
+
+        // the sort is stable, so within a group the ids stay in order
+        BagArray sorted = new BagArray (bagArray).sort (new SortKey ("group"));
+        boolean stable = true;
+        for (int i = 1; i < count; ++i) {
+            int cmp = sorted.getString (i - 1 + "/group").compareTo (sorted.getString (i + "/group"));
+            stable = stable && ((cmp < 0) || ((cmp == 0) && (sorted.getInteger (i - 1 + "/id") < sorted.getInteger (i + "/id"))));
+        }
+        AppTest.report (stable, true, "large sort is ordered and stable");
+    }
+
+    @Test
+    public void testSortMultipleKeys () {
+        BagArray bagArray = new BagArray ()
+                .add (new BagObject ().put ("name", "d").put ("size", "10"))
+                .add (new BagObject ().put ("name", "a").put ("size", "9.5"))
+                .add (new BagObject ().put ("name", "c"))
+                .add (new BagObject ().put ("name", "b").put ("size", "10"))
+                .add (new BagObject ().put ("name", "e").put ("size", "big"))
+                .add (new BagObject ().put ("name", "f").put ("size", "-2"));
+        SortKey[] sortKeys = {
+                new SortKey ("size", SortType.NUMERIC, SortOrder.DESCENDING),
+                new SortKey ("name")
+        };
+        BagArray sorted = new BagArray (bagArray).sort (sortKeys);
+        StringBuilder names = new StringBuilder ();
+        for (int i = 0; i < sorted.getCount (); ++i) {
+            names.append (sorted.getString (i + "/name"));
+        }
+        AppTest.report (names.toString (), "bdafce", "numeric descending, then alphabetic, with missing values last");
+
+        BagArray nativeArray = new BagArray ().setNativeValues (true).add (3).add (1.5).add (20).add ("x");
+        AppTest.report (new BagArray (nativeArray).sort (new SortKey (null, SortType.NUMERIC, SortOrder.ASCENDING)).toString (),
+                "[1.5,3,20,\"x\"]", "numeric sort of native values");
+        AppTest.report (new BagArray (nativeArray).sort ().toString (), "[1.5,20,3,\"x\"]", "alphabetic sort of native values");
+    }
+
+    @Test
+    public void testTopK () {
+        BagArray bagArray = new BagArray ();
+        Random random = new Random (2);
+        for (int i = 0; i < 500; ++i) {
+            bagArray.add (new BagObject ()
+                    .put ("id", i)
+                    .put ("score", random.nextInt (50))
+                    .put ("name", "n" + random.nextInt (10))
+            );
+        }
+        SortKey[] sortKeys = {
+                new SortKey ("score", SortType.NUMERIC, SortOrder.DESCENDING),
+                new SortKey ("name")
+        };
+        BagArray sorted = new BagArray (bagArray).sort (sortKeys);
+        for (int n : new int[] { 1, 10, 50, 499, 500 }) {
+            AppTest.report (bagArray.topK (n, sortKeys), sorted.subset (0, n), "top " + n + " matches sort and subset");
+        }
+        AppTest.report (bagArray.topK (1000, sortKeys), sorted, "top n larger than the array is the whole sorted array");
+        AppTest.report (bagArray.topK (0, sortKeys).getCount (), 0, "top 0 is empty");
+        AppTest.report (bagArray.getInteger ("0/id"), 0, "top k doesn't change the array");
+
+        BagArray strings = new BagArray ().add ("pear").add ("apple").add ("fig").add ("kiwi");
+        AppTest.report (strings.topK (2).toString (), "[\"apple\",\"fig\"]", "top k with the default key");
+    }
+
+    @Test
+    public void testCompiledExpr () {
+        BagObject bagObject = new BagObject ().setNativeValues (true)
+                .put ("a", 5)
+                .put ("b", "5")
+                .put ("c", new BagObject ().put ("d", true))
+                .put ("e", "x");
+        BagObject a5 = com.brettonw.bag.expr.Equality.bag (com.brettonw.bag.expr.Key.bag ("a"), com.brettonw.bag.expr.Value.bag ("5"));
+        BagObject missing = com.brettonw.bag.expr.Equality.bag (com.brettonw.bag.expr.Key.bag ("z"), com.brettonw.bag.expr.Value.bag (null));
+        BagObject keys = com.brettonw.bag.expr.Equality.bag (com.brettonw.bag.expr.Key.bag ("a"), com.brettonw.bag.expr.Key.bag ("b"));
+        BagObject reversed = com.brettonw.bag.expr.Equality.bag (com.brettonw.bag.expr.Value.bag ("true"), com.brettonw.bag.expr.Key.bag ("c/d"));
+        BagObject bag = com.brettonw.bag.expr.Equality.bag (com.brettonw.bag.expr.Key.bag ("c"), com.brettonw.bag.expr.Value.bag ("x"));
+
+        Object[][] cases = {
+                { a5, true },
+                { missing, true },
+                { keys, true },
+                { reversed, true },
+                { bag, false },
+                { com.brettonw.bag.expr.Not.bag (a5), false },
+                { com.brettonw.bag.expr.And.bag (a5, bag), false },
+                { com.brettonw.bag.expr.Or.bag (bag, reversed), true }
+        };
+        for (Object[] test : cases) {
+            BooleanExpr booleanExpr = (BooleanExpr) Exprs.get (test[0]);
+            AppTest.report (booleanExpr.getPredicate ().test (bagObject), test[1], "compiled " + test[0]);
+            AppTest.report (bagObject.match (booleanExpr), test[1], "matched " + test[0]);
+            AppTest.report (booleanExpr.getPredicate (), booleanExpr.getPredicate (), "predicate is cached");
+        }
+    }
+
+    @Test
+    public void testCapacity () {
+        BagArray bagArray = new BagArray ().ensureCapacity (10);
+        for (int i = 0; i < 100000; ++i) {
+            bagArray.add (i);
+        }
+        bagArray.insert (0, "first").trimToSize ().add ("last");
+        AppTest.report (bagArray.getCount (), 100002, "count after growing");
+        AppTest.report (bagArray.getString (0), "first", "insert at the front");
+        AppTest.report (bagArray.getInteger (99999), 99998, "values survive growing and trimming");
+        AppTest.report (bagArray.getString ("#last"), "last", "add after trimming");
+
+        bagArray = new BagArray ().trimToSize ().insert (5, "x");
+        AppTest.report (bagArray.getCount (), 6, "sparse insert grows past the gap");
+        AppTest.report (bagArray.getObject (4), null, "sparse insert leaves nulls");
+
+        // resizing a copy on write gives it its own store, trimming one that is full doesn't
+        BagArray original = new BagArray (2).add ("a").add ("b");
+        BagArray trimmed = new BagArray (original, true).trimToSize ();
+        BagArray grown = new BagArray (original, true).ensureCapacity (100);
+        original.replace (0, "x");
+        trimmed.replace (1, "y");
+        grown.add ("c");
+        AppTest.report (original.toString (), "[\"x\",\"b\"]", "copy on write original after resizing the copies");
+        AppTest.report (trimmed.toString (), "[\"a\",\"y\"]", "copy on write trimmed");
+        AppTest.report (grown.toString (), "[\"a\",\"b\",\"c\"]", "copy on write grown");
+    }
+
+    @Test
+    public void testCopyOnWrite () {
+        BagArray bagArray = new BagArray ().add ("a").add (new BagObject ().put ("b", "c")).add (new BagArray ().add ("d"));
+        String json = bagArray.toString ();
+
+        // a deep copy shares nothing
+        BagArray copy = new BagArray (bagArray);
+        copy.getBagObject (1).put ("b", "x");
+        AppTest.report (bagArray.toString (), json, "BagArray - deep copy changes don't reach the original");
+
+        // a copy on write shares until something changes
+        BagArray snapshot = new BagArray (bagArray, true);
+        AppTest.report (snapshot, bagArray, "BagArray - copy on write");
+        bagArray.add ("e").getBagObject (1).put ("b", "y");
+        bagArray.getBagArray (2).replace (0, "f");
+        AppTest.report (snapshot.toString (), json, "BagArray - copy on write is not changed by the original");
+        AppTest.report (bagArray.getString ("1/b"), "y", "BagArray - original can be changed after copy on write");
+
+        String changed = bagArray.toString ();
+        BagArray second = new BagArray (bagArray, true);
+        second.sort ();
+        for (Object element : second) {
+            if (element instanceof BagObject) {
+                ((BagObject) element).put ("z", "z");
+            }
+        }
+        AppTest.report (bagArray.toString (), changed, "BagArray - original is not changed by the copy on write");
+        AppTest.report (second.getCount (), 4, "BagArray - copy on write can be changed");
+
+        // nested bags the caller already holds when the copy is made
+        BagArray held = new BagArray ().add (new BagArray ().add (1));
+        BagArray child = held.getBagArray (0);
+        BagArray heldCopy = new BagArray (held, true);
+        child.add (2);
+        AppTest.report (heldCopy.getBagArray (0).getCount (), 1, "BagArray - copy on write is not changed through a nested bag held before the copy");
+        AppTest.report (held.getBagArray (0).getCount (), 2, "BagArray - nested bag held before the copy still changes the original");
+        BagArray deep = new BagArray ().add (new BagArray ().add (new BagArray ().add (1)));
+        BagArray grandchild = deep.getBagArray (0).getBagArray (0);
+        BagArray deepCopy = new BagArray (deep, true);
+        grandchild.add (2);
+        AppTest.report (deepCopy.getBagArray (0).getBagArray (0).getCount (), 1, "BagArray - copy on write is not changed through a deeply nested bag held before the copy");
+        AppTest.report (deep.getBagArray (0).getBagArray (0) == grandchild, true, "BagArray - reading after a copy on write doesn't replace nested bags");
+    }
+
+    @Test
+    public void testStructuralEquals () {
+        BagArray bagArray = new BagArray ().add ("a").add (null).add (new BagObject ().put ("b", "c"));
+        BagArray same = new BagArray ().add ("a").add (null).add (new BagObject ().put ("b", "c"));
+        AppTest.report (bagArray.equals (same), true, "BagArray - structurally equal");
+        AppTest.report (bagArray.hashCode (), same.hashCode (), "BagArray - structurally equal hash");
+
+        // order matters
+        BagArray swapped = new BagArray ().add ("x").add ("y");
+        AppTest.report (swapped.equals (new BagArray ().add ("y").add ("x")), false, "BagArray - order matters");
+        AppTest.report (swapped.hashCode () != new BagArray ().add ("y").add ("x").hashCode (), true, "BagArray - order matters to the hash");
+
+        // changes to nested bags are seen
+        int hash = bagArray.hashCode ();
+        bagArray.getBagObject (2).put ("b", "d");
+        AppTest.report (bagArray.hashCode () != hash, true, "BagArray - hash follows a change to a nested bag");
+        AppTest.report (bagArray.equals (same), false, "BagArray - not equal after a change to a nested bag");
+        bagArray.replace (2, new BagObject ().put ("b", "c"));
+        AppTest.report (bagArray.equals (same), true, "BagArray - equal after replace");
+        BagArray reversed = new BagArray ().add ("y").add ("x");
+        int reversedHash = reversed.hashCode ();
+        AppTest.report (reversed.sort ().equals (swapped), true, "BagArray - equal after sort");
+        AppTest.report (reversed.hashCode () != reversedHash, true, "BagArray - hash follows a sort");
+
+        // a nested bag held in several places changes the hash of each of them
+        BagObject nested = new BagObject ().put ("n", "1");
+        BagArray first = new BagArray ().add (new BagArray ().add (nested));
+        BagArray second = new BagArray ().add ("s").add (nested);
+        BagArray joined = BagArray.concat (first, second);
+        int[] hashes = { first.hashCode (), second.hashCode (), joined.hashCode () };
+        nested.put ("n", "2");
+        AppTest.report (first.hashCode () != hashes[0], true, "BagArray - hash follows a change to a deeply nested bag");
+        AppTest.report (second.hashCode () != hashes[1], true, "BagArray - hash follows a change to a bag held in another array");
+        AppTest.report (joined.hashCode () != hashes[2], true, "BagArray - hash of a concatenation follows a change to a nested bag");
+        AppTest.report (joined.equals (BagArray.concat (first, second)), true, "BagArray - concatenation equal after a change to a nested bag");
+    }
+
+    @Test
+    public void testFreeze () {
+        BagArray bagArray = new BagArray ().add ("b").add ("a").add (new BagObject ().put ("c", "d")).freeze ();
+        AppTest.report (bagArray.isFrozen () && bagArray.getBagObject (2).isFrozen (), true, "BagArray - freeze reaches nested bags");
+
+        String[] rejected = { "add", "insert", "replace", "remove", "pop", "sort", "nested" };
+        Runnable[] changes = {
+                () -> bagArray.add ("x"),
+                () -> bagArray.insert (0, "x"),
+                () -> bagArray.replace (0, "x"),
+                () -> bagArray.remove (0),
+                () -> bagArray.pop (),
+                () -> bagArray.sort (),
+                () -> bagArray.getBagObject (2).put ("c", "x")
+        };
+        for (int i = 0; i < changes.length; ++i) {
+            boolean threw = false;
+            try {
+                changes[i].run ();
+            } catch (UnsupportedOperationException exception) {
+                threw = true;
+            }
+            AppTest.report (threw, true, "BagArray - frozen " + rejected[i] + " is rejected");
+        }
+        AppTest.report (bagArray.toString (), "[\"b\",\"a\",{\"c\":\"d\"}]", "BagArray - frozen is unchanged");
+
+        // changes that would do nothing are still rejected
+        BagArray small = new BagArray ().add ("a").freeze ();
+        String[] emptyRejected = { "sort", "remove", "getAndRemove" };
+        Runnable[] emptyChanges = {
+                () -> small.sort (),
+                () -> small.remove (5),
+                () -> new BagArray ().freeze ().getAndRemove (0)
+        };
+        for (int i = 0; i < emptyChanges.length; ++i) {
+            boolean threw = false;
+            try {
+                emptyChanges[i].run ();
+            } catch (UnsupportedOperationException exception) {
+                threw = true;
+            }
+            AppTest.report (threw, true, "BagArray - frozen " + emptyRejected[i] + " with nothing to do is rejected");
+        }
+
+        // the frozen hash doesn't change when other bags do
+        int hash = bagArray.hashCode ();
+        new BagArray ().add ("x").add (new BagObject ().put ("y", "z"));
+        AppTest.report (bagArray.hashCode (), hash, "BagArray - frozen hash is stable");
+        AppTest.report (new BagArray (bagArray, true).hashCode (), hash, "BagArray - frozen hash matches a copy");
+
+        // reading operations still work, and copies can be changed
+        AppTest.report (bagArray.subset (0, 2).sort ().getString (0), "a", "BagArray - subset of frozen can be sorted");
+        BagArray copy = new BagArray (bagArray, true).sort ();
+        AppTest.report (copy.getString (0), "a", "BagArray - copy of frozen can be sorted");
+        AppTest.report (bagArray.getString (0), "b", "BagArray - frozen is not changed by its copy");
+    }
 }
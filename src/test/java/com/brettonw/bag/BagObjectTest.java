@@ -11,6 +11,12 @@ import org.junit.Test;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertNotNull;
@@ -349,4 +355,284 @@ public class BagObjectTest {
         AppTest.report (bagObject.equals (null), false, "BagObject should not be equal to null");
         AppTest.report (bagObject.equals (new Integer (5)), false, "BagObject should not be equal to a non-bag object");
     }
+
+    @Test
+    public void testNativeValues () {
+        BagObject bagObject = new BagObject ().setNativeValues (true)
+                .put ("long", 12345678901L)
+                .put ("int", 42)
+                .put ("double", 2.5)
+                .put ("bool", true)
+                .put ("nan", Double.NaN)
+                .put ("string", "007")
+                .put ("path/to/value", 3);
+        AppTest.report (bagObject.getObject ("long"), 12345678901L, "BagObject - native long is stored as is");
+        AppTest.report (bagObject.getLong ("long"), 12345678901L, "BagObject - native long getter");
+        AppTest.report (bagObject.getInteger ("int"), 42, "BagObject - native integer getter");
+        AppTest.report (bagObject.getDouble ("int"), 42.0, "BagObject - native integer as double");
+        AppTest.report (bagObject.getDouble ("double"), 2.5, "BagObject - native double getter");
+        AppTest.report (bagObject.getBoolean ("bool"), true, "BagObject - native boolean getter");
+        AppTest.report (bagObject.getString ("double"), "2.5", "BagObject - native value as string");
+        AppTest.report (bagObject.getInteger ("string"), 7, "BagObject - string values are still parsed");
+        AppTest.report (bagObject.getBagObject ("path/to").hasNativeValues (), true, "BagObject - implicit children inherit native values");
+        AppTest.report (bagObject.getObject ("path/to/value"), 3, "BagObject - native value in implicit child");
+
+        String json = bagObject.toString ();
+        AppTest.report (json, "{\"bool\":true,\"double\":2.5,\"int\":42,\"long\":12345678901,\"nan\":\"NaN\",\"path\":{\"to\":{\"value\":3}},\"string\":\"007\"}", "BagObject - native values are written as bare values");
+
+        // a copy reads the bare values back natively
+        BagObject copy = new BagObject (bagObject);
+        AppTest.report (copy, bagObject, "BagObject - copy of native values");
+        AppTest.report (copy.getObject ("long"), 12345678901L, "BagObject - copy keeps native long");
+        AppTest.report (copy.getObject ("bool"), true, "BagObject - copy keeps native boolean");
+        AppTest.report (copy.getObject ("string"), "007", "BagObject - copy keeps quoted string");
+
+        // without native values, everything is still stored as a string
+        BagObject plain = new BagObject ().put ("int", 42).put ("bool", true);
+        AppTest.report (plain.getObject ("int"), "42", "BagObject - default stores strings");
+        AppTest.report (plain.toString (), "{\"bool\":\"true\",\"int\":\"42\"}", "BagObject - default writes strings");
+    }
+
+    @Test
+    public void testHashedStorage () {
+        // wide objects switch to hashed storage, check it against a sorted map through adds,
+        // replacements, and removals
+        for (boolean hashed : new boolean[] { false, true }) {
+            BagObject bagObject = new BagObject (1, hashed);
+            TreeMap<String, String> expect = new TreeMap<> ();
+            Random random = new Random (12345);
+            for (int i = 0; i < 5000; ++i) {
+                String key = "key-" + random.nextInt (2000);
+                if (random.nextInt (4) == 0) {
+                    bagObject.remove (key);
+                    expect.remove (key);
+                } else {
+                    String value = Integer.toString (i);
+                    bagObject.put (key, value);
+                    expect.put (key, value);
+                }
+            }
+            AppTest.report (bagObject.getCount (), expect.size (), "BagObject - hashed storage count (" + hashed + ")");
+            AppTest.report (Arrays.asList (bagObject.keys ()), Arrays.asList (expect.keySet ().toArray (new String[0])), "BagObject - hashed storage keys are sorted (" + hashed + ")");
+            boolean allFound = true;
+            for (String key : expect.keySet ()) {
+                allFound = allFound && bagObject.has (key) && bagObject.getString (key).equals (expect.get (key));
+            }
+            AppTest.report (allFound, true, "BagObject - hashed storage values (" + hashed + ")");
+            AppTest.report (bagObject.has ("key-2001"), false, "BagObject - hashed storage missing key (" + hashed + ")");
+
+            // the JSON form doesn't depend on the storage
+            BagObject copy = BagObjectFrom.string (bagObject.toString ());
+            AppTest.report (copy, bagObject, "BagObject - hashed storage round trip (" + hashed + ")");
+        }
+
+        // paths through hashed objects
+        BagObject bagObject = new BagObject (0, true).put ("a/b/c", "d");
+        AppTest.report (bagObject.getString ("a/b/c"), "d", "BagObject - path in hashed storage");
+        bagObject.remove ("a/b/c");
+        AppTest.report (bagObject.has ("a/b/c"), false, "BagObject - removed path in hashed storage");
+    }
+
+    @Test
+    public void testCapacity () {
+        for (boolean hashed : new boolean[] { false, true }) {
+            BagObject bagObject = new BagObject (0, hashed).ensureCapacity (50);
+            for (int i = 0; i < 1000; ++i) {
+                bagObject.put ("key" + i, i);
+            }
+            bagObject.trimToSize ().put ("extra", "value").trimToSize ();
+            AppTest.report (bagObject.getCount (), 1001, "count after growing (" + hashed + ")");
+            AppTest.report (bagObject.getInteger ("key777"), 777, "values survive growing and trimming (" + hashed + ")");
+            AppTest.report (bagObject.getString ("extra"), "value", "put after trimming (" + hashed + ")");
+            AppTest.report (bagObject.remove ("key0").getCount (), 1000, "remove after trimming (" + hashed + ")");
+        }
+    }
+
+    @Test
+    public void testParallelStorage () {
+        // every put, add, and path below has to grow the store while the entry is being added
+        BagObject bagObject = new BagObject (0);
+        for (int i = 0; i < 100; ++i) {
+            bagObject.put ("p" + i, i).add ("a" + i, i).put ("o" + i + "/x", i);
+        }
+        AppTest.report (bagObject.getCount (), 300, "BagObject - parallel storage count");
+        AppTest.report (bagObject.getInteger ("p42"), 42, "BagObject - parallel storage put");
+        AppTest.report (bagObject.getInteger ("a42"), 42, "BagObject - parallel storage add");
+        AppTest.report (bagObject.getInteger ("o42/x"), 42, "BagObject - parallel storage path");
+
+        // removing entries keeps keys and values together
+        for (int i = 0; i < 100; i += 2) {
+            bagObject.remove ("p" + i).remove ("a" + i).remove ("o" + i);
+        }
+        boolean together = true;
+        for (String key : bagObject.keys ()) {
+            Object value = bagObject.getObject (key);
+            int i = Integer.parseInt (key.substring (1));
+            together = together && ((i % 2) == 1) && ((value instanceof BagObject) ?
+                    (((BagObject) value).getInteger ("x") == i) : (Integer.parseInt (value.toString ()) == i));
+        }
+        AppTest.report (bagObject.getCount (), 150, "BagObject - parallel storage count after remove");
+        AppTest.report (together, true, "BagObject - parallel storage keys and values stay together");
+    }
+
+    @Test
+    public void testDeepCopy () {
+        BagObject bagObject = new BagObject (0, true).setNativeValues (true)
+                .put ("a/b", 1).put ("c", "d").add ("e", 2).add ("e", new BagObject ().put ("f", "g"));
+        BagObject copy = new BagObject (bagObject);
+        AppTest.report (copy, bagObject, "BagObject - deep copy");
+        AppTest.report (copy.hasNativeValues (), true, "BagObject - deep copy keeps native values");
+
+        // nothing is shared, so changes don't show through in either direction
+        copy.put ("a/b", 3).getBagArray ("e").getBagObject (1).put ("f", "h");
+        bagObject.put ("c", "x").remove ("e");
+        AppTest.report (bagObject.getInteger ("a/b"), 1, "BagObject - deep copy changes don't reach the original");
+        AppTest.report (copy.getString ("c"), "d", "BagObject - original changes don't reach the deep copy");
+        AppTest.report (copy.getString ("e/1/f"), "h", "BagObject - deep copy of nested array");
+        AppTest.report (copy.put ("z", "z").getCount (), 4, "BagObject - deep copy can grow");
+    }
+
+    @Test
+    public void testCopyOnWrite () {
+        BagObject bagObject = new BagObject ().put ("a/b/c", "1").put ("d", "2").add ("e", "3").add ("e", "4");
+        String json = bagObject.toString ();
+        BagObject snapshot = new BagObject (bagObject, true);
+        AppTest.report (snapshot, bagObject, "BagObject - copy on write");
+
+        // change the original at every level, the snapshot keeps the old values
+        bagObject.put ("a/b/c", "5").put ("d", "6").remove ("e");
+        bagObject.getBagObject ("a").put ("x", "7");
+        AppTest.report (snapshot.toString (), json, "BagObject - copy on write is not changed by the original");
+
+        // and the other way around
+        BagObject second = new BagObject (bagObject, true);
+        String secondJson = bagObject.toString ();
+        second.getBagObject ("a/b").put ("c", "8");
+        second.add ("a/y", "9").remove ("d");
+        AppTest.report (bagObject.toString (), secondJson, "BagObject - original is not changed by the copy on write");
+        AppTest.report (second.getString ("a/b/c"), "8", "BagObject - copy on write can be changed");
+        AppTest.report (snapshot.toString (), json, "BagObject - earlier copy on write is still not changed");
+
+        // hashed storage
+        BagObject wide = new BagObject (0, true);
+        for (int i = 0; i < 100; ++i) {
+            wide.put ("k" + i, i);
+        }
+        BagObject wideCopy = new BagObject (wide, true).remove ("k5").put ("k500", 500);
+        AppTest.report (wide.has ("k5") && (! wide.has ("k500")), true, "BagObject - hashed original is not changed by the copy on write");
+        AppTest.report ((! wideCopy.has ("k5")) && wideCopy.has ("k500") && wideCopy.has ("k99"), true, "BagObject - hashed copy on write");
+
+        // nested bags the caller already holds when the copy is made
+        BagObject held = new BagObject ().put ("c/x", 1);
+        BagObject child = held.getBagObject ("c");
+        BagObject heldCopy = new BagObject (held, true);
+        child.put ("y", 2);
+        AppTest.report (heldCopy.getBagObject ("c").has ("y"), false, "BagObject - copy on write is not changed through a nested bag held before the copy");
+        AppTest.report (held.getBagObject ("c").has ("y"), true, "BagObject - nested bag held before the copy still changes the original");
+        BagObject deep = new BagObject ().put ("c/g/x", 1);
+        BagObject grandchild = deep.getBagObject ("c/g");
+        BagObject deepCopy = new BagObject (deep, true);
+        grandchild.put ("y", "2");
+        AppTest.report (deepCopy.getBagObject ("c/g").has ("y"), false, "BagObject - copy on write is not changed through a deeply nested bag held before the copy");
+        AppTest.report (deep.getBagObject ("c/g").has ("y"), true, "BagObject - deeply nested bag held before the copy still changes the original");
+
+        // reading either side doesn't change it, so the nested bags stay the same
+        AppTest.report (deep.getBagObject ("c/g") == grandchild, true, "BagObject - reading after a copy on write doesn't replace nested bags");
+        AppTest.report (deepCopy.getBagObject ("c") == deepCopy.getBagObject ("c"), true, "BagObject - reading a copy on write doesn't replace nested bags");
+    }
+
+    @Test
+    public void testStructuralEquals () {
+        // the same contents in sorted and hashed storage
+        BagObject sorted = new BagObject ().put ("b", "2").put ("a", "1").put ("c/d", "3");
+        BagObject hashed = new BagObject (0, true).put ("c/d", "3").put ("a", "1").put ("b", "2");
+        AppTest.report (sorted.equals (hashed), true, "BagObject - equal across storage strategies");
+        AppTest.report (sorted.hashCode (), hashed.hashCode (), "BagObject - equal hash across storage strategies");
+        AppTest.report (sorted.equals (new BagArray ()), false, "BagObject - not equal to a BagArray");
+
+        // strings and native values are different, native values of different types are not
+        BagObject nativeInt = new BagObject ().setNativeValues (true).put ("x", 42);
+        BagObject nativeLong = new BagObject ().setNativeValues (true).put ("x", 42L);
+        AppTest.report (nativeInt.equals (nativeLong), true, "BagObject - native values with the same form are equal");
+        AppTest.report (nativeInt.hashCode (), nativeLong.hashCode (), "BagObject - native values with the same form hash the same");
+        AppTest.report (nativeInt.equals (new BagObject ().put ("x", 42)), false, "BagObject - native value is not equal to a string");
+        BagObject nativeFloat = new BagObject ().setNativeValues (true).put ("x", 2.5f);
+        BagObject nativeDouble = new BagObject ().setNativeValues (true).put ("x", 2.5);
+        AppTest.report (nativeFloat.equals (nativeDouble), true, "BagObject - native floating point values with the same value are equal");
+        AppTest.report (nativeFloat.hashCode (), nativeDouble.hashCode (), "BagObject - native floating point values with the same value hash the same");
+        AppTest.report (nativeLong.equals (new BagObject ().setNativeValues (true).put ("x", 42.0)), false, "BagObject - whole number is not equal to a floating point number");
+
+        // the cached hash follows changes, including changes to nested bags
+        int hash = sorted.hashCode ();
+        sorted.getBagObject ("c").put ("d", "4");
+        AppTest.report (sorted.hashCode () != hash, true, "BagObject - hash follows a change to a nested bag");
+        hash = sorted.hashCode ();
+        AppTest.report (sorted.hashCode (), hash, "BagObject - cached hash is stable");
+        BagObject deep = new BagObject ().put ("e", "5");
+        sorted.getBagObject ("c").put ("f", new BagObject ().put ("g", deep));
+        hash = sorted.hashCode ();
+        deep.put ("e", "6");
+        AppTest.report (sorted.hashCode () != hash, true, "BagObject - hash follows a change to a deeply nested bag");
+        sorted.getBagObject ("c").remove ("f");
+        AppTest.report (sorted.equals (hashed), false, "BagObject - not equal after a change to a nested bag");
+        hashed.put ("c/d", "4");
+        AppTest.report (sorted.hashCode (), hashed.hashCode (), "BagObject - hash matches again");
+        AppTest.report (sorted.equals (hashed), true, "BagObject - equal again");
+        sorted.remove ("a");
+        AppTest.report (sorted.equals (hashed), false, "BagObject - not equal after a remove");
+
+        // bags work as keys
+        Set<BagObject> set = new HashSet<> ();
+        for (int i = 0; i < 100; ++i) {
+            set.add (new BagObject ().put ("id", i % 10).put ("tags", new BagArray ().add ("t" + (i % 10))));
+        }
+        AppTest.report (set.size (), 10, "BagObject - duplicates removed in a HashSet");
+        AppTest.report (set.contains (new BagObject ().put ("tags", new BagArray ().add ("t3")).put ("id", 3)), true, "BagObject - found in a HashSet");
+    }
+
+    private static boolean rejected (Runnable runnable) {
+        try {
+            runnable.run ();
+        } catch (UnsupportedOperationException exception) {
+            return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void testFreeze () {
+        BagObject bagObject = new BagObject (100).put ("a/b", "1").put ("c", "2").add ("d", "3").add ("d", "4");
+        int hash = bagObject.hashCode ();
+        BagObject frozen = bagObject.freeze ();
+        AppTest.report (frozen == bagObject, true, "BagObject - freeze returns the same object");
+        AppTest.report (frozen.isFrozen () && frozen.getBagObject ("a").isFrozen () && frozen.getBagArray ("d").isFrozen (), true, "BagObject - freeze reaches nested bags");
+        AppTest.report (frozen.hashCode (), hash, "BagObject - freeze keeps the hash");
+        AppTest.report (frozen.getString ("a/b"), "1", "BagObject - frozen values can be read");
+
+        // every kind of change is rejected, and nothing changes
+        AppTest.report (rejected (() -> frozen.put ("c", "x")), true, "BagObject - frozen put is rejected");
+        AppTest.report (rejected (() -> frozen.put ("a/b", "x")), true, "BagObject - frozen path put is rejected");
+        AppTest.report (rejected (() -> frozen.add ("d", "x")), true, "BagObject - frozen add is rejected");
+        AppTest.report (rejected (() -> frozen.remove ("c")), true, "BagObject - frozen remove is rejected");
+        AppTest.report (rejected (() -> frozen.getBagObject ("a").put ("e", "x")), true, "BagObject - nested frozen put is rejected");
+        AppTest.report (rejected (() -> frozen.getBagArray ("d").add ("x")), true, "BagObject - nested frozen add is rejected");
+        AppTest.report (rejected (() -> frozen.ensureCapacity (1000)), true, "BagObject - frozen grow is rejected");
+        AppTest.report (frozen.toString (), "{\"a\":{\"b\":\"1\"},\"c\":\"2\",\"d\":[\"3\",\"4\"]}", "BagObject - frozen is unchanged");
+
+        // copies can be changed, without changing the frozen original
+        BagObject copy = new BagObject (frozen, true);
+        copy.put ("c", "x").getBagObject ("a").put ("b", "y");
+        AppTest.report (copy.isFrozen () || copy.getBagObject ("a").isFrozen (), false, "BagObject - copy of frozen can be changed");
+        AppTest.report (frozen.getString ("c") + frozen.getString ("a/b"), "21", "BagObject - frozen is not changed by its copy");
+        AppTest.report (new BagObject (frozen).put ("c", "z").getString ("c"), "z", "BagObject - deep copy of frozen can be changed");
+
+        // hashed storage sorts its keys before it's shared, and is read from many threads at once
+        BagObject wide = new BagObject (0, true);
+        for (int i = 0; i < 1000; ++i) {
+            wide.put ("k" + i, i);
+        }
+        wide.freeze ();
+        AppTest.report (wide.keys ()[1], "k1", "BagObject - frozen hashed keys are sorted");
+        AppTest.report (IntStream.range (0, 10000).parallel ().allMatch (i -> wide.getInteger ("k" + (i % 1000)) == (i % 1000)), true, "BagObject - frozen reads from many threads");
+    }
 }
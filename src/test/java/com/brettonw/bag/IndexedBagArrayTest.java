@@ -0,0 +1,65 @@
+package com.brettonw.bag;
+
+import com.brettonw.AppTest;
+import com.brettonw.bag.expr.*;
+import org.junit.Test;
+
+import java.io.File;
+
+public class IndexedBagArrayTest {
+    private static BagObject equality (String key, String value) {
+        return Equality.bag (com.brettonw.bag.expr.Key.bag (key), Value.bag (value));
+    }
+
+    @Test
+    public void testQuery () {
+        BagArray satellites = BagArrayFrom.file (new File ("data/UCS_Satellite_Database_2-1-14.json"));
+        IndexedBagArray indexed = new IndexedBagArray (satellites)
+                .addHashIndex ("Class of Orbit")
+                .addSortedIndex (new SortKey ("Users"));
+        AppTest.report (indexed.getCount (), satellites.getCount (), "indexed copy has every element");
+
+        BooleanExpr[] matches = {
+                Exprs.equality ("Class of Orbit", "GEO"),
+                Exprs.equality ("Users", "Civil"),
+                Exprs.equality ("Class of Orbit", "Nowhere"),
+                Exprs.inequality ("Class of Orbit", "GEO"),
+                Exprs.equality ("Purpose", "Communications"),
+                (BooleanExpr) Exprs.get (And.bag (equality ("Class of Orbit", "GEO"), equality ("Users", "Commercial"))),
+                (BooleanExpr) Exprs.get (And.bag (equality ("Purpose", "Communications"), equality ("Class of Orbit", "MEO"))),
+                (BooleanExpr) Exprs.get (Or.bag (equality ("Class of Orbit", "MEO"), equality ("Users", "Military"))),
+                (BooleanExpr) Exprs.get (Or.bag (equality ("Class of Orbit", "MEO"), equality ("Purpose", "Navigation"))),
+                null
+        };
+        for (BooleanExpr match : matches) {
+            AppTest.report (indexed.query (match, null), satellites.query (match, null), "indexed query matches scan");
+        }
+
+        AppTest.report (indexed.find ("Class of Orbit", "LEO"), satellites.query (Exprs.equality ("Class of Orbit", "LEO"), null), "find with a hash index");
+        AppTest.report (indexed.find ("Purpose", "Communications"), satellites.query (Exprs.equality ("Purpose", "Communications"), null), "find without an index");
+    }
+
+    @Test
+    public void testRange () {
+        IndexedBagArray indexed = new IndexedBagArray ()
+                .addSortedIndex (new SortKey ("size", SortType.NUMERIC, SortOrder.ASCENDING))
+                .addSortedIndex (new SortKey ("name"));
+        String[] names = { "e", "b", "d", "a", "c" };
+        for (int i = 0; i < names.length; ++i) {
+            indexed.add (new BagObject ().put ("name", names[i]).put ("size", (i * 10) + 5));
+        }
+        indexed.add (new BagObject ().put ("name", "f").put ("size", "big"));
+
+        AppTest.report (indexed.range ("size", 10, 40).toString (), indexed.toBagArray ().subset (1, 3).toString (), "numeric range");
+        AppTest.report (indexed.range ("size", null, 5).getCount (), 1, "open lower bound");
+        AppTest.report (indexed.range ("name", "b", "d").getString ("0/name"), "b", "alphabetic range is in order");
+        AppTest.report (indexed.range ("name", "b", "d").getCount (), 3, "alphabetic range");
+        AppTest.report (indexed.range ("color", "a", "z"), null, "no index");
+        AppTest.report (indexed.find ("name", "f").getString ("0/size"), "big", "find with an alphabetic sorted index");
+
+        // changes made in place are picked up by reindex
+        ((BagObject) indexed.getObject (0)).put ("name", "z");
+        AppTest.report (indexed.find ("name", "z").getCount (), 0, "stale index");
+        AppTest.report (indexed.reindex ().find ("name", "z").getCount (), 1, "reindexed");
+    }
+}
@@ -26,4 +26,43 @@ public class KeyTest {
         AppTest.report (bagObject.has (Key.cat (com, brettonw, bag, name)), true, "Key - test that a correct path returns true");
     }
 
+    @Test
+    public void testKeyPath() {
+        KeyPath keyPath = new KeyPath ("com/brettonw/bag/name");
+        AppTest.report (keyPath.getLength (), 4, "KeyPath - length");
+        AppTest.report (keyPath.getComponent (2), "bag", "KeyPath - component");
+        AppTest.report (keyPath.toString (), "com/brettonw/bag/name", "KeyPath - toString");
+        AppTest.report (keyPath.equals (new KeyPath ("com/brettonw/bag/name")), true, "KeyPath - equals");
+        AppTest.report (keyPath.hashCode (), new KeyPath ("com/brettonw/bag/name").hashCode (), "KeyPath - hashCode");
+
+        // a compiled path behaves the same as the string it was compiled from
+        BagObject bagObject = new BagObject ().put (keyPath, "test");
+        AppTest.report (bagObject.getString ("com/brettonw/bag/name"), "test", "KeyPath - put");
+        AppTest.report (bagObject.getString (keyPath), "test", "KeyPath - getString");
+        AppTest.report (bagObject.has (keyPath), true, "KeyPath - has");
+        AppTest.report (bagObject.has (new KeyPath ("com/brettonw/xxx")), false, "KeyPath - has missing");
+        AppTest.report (bagObject.getBagObject (new KeyPath ("com/brettonw")).getString ("bag/name"), "test", "KeyPath - getBagObject");
+
+        KeyPath values = new KeyPath ("com/values");
+        bagObject.add (values, 1).add (values, 2).add (values, 3);
+        AppTest.report (bagObject.getBagArray (values).getCount (), 3, "KeyPath - add");
+        AppTest.report (bagObject.getInteger (new KeyPath ("com/values/#first")), 1, "KeyPath - #first");
+        AppTest.report (bagObject.getInteger (new KeyPath ("com/values/#last")), 3, "KeyPath - #last");
+        AppTest.report (bagObject.getInteger (new KeyPath ("com/values/1")), 2, "KeyPath - index");
+        AppTest.report (bagObject.getInteger (new KeyPath ("com/values/3")), null, "KeyPath - index out of range");
+        AppTest.report (bagObject.getInteger (new KeyPath ("com/values/-1")), null, "KeyPath - negative index");
+
+        BagArray bagArray = new BagArray ().add (bagObject);
+        AppTest.report (bagArray.getString (new KeyPath ("0/com/brettonw/bag/name")), "test", "KeyPath - array root");
+        AppTest.report (bagArray.getString ("#last/com/brettonw/bag/name"), "test", "KeyPath - array root string path");
+        try {
+            bagArray.getObject (new KeyPath ("xxx/com"));
+            AppTest.report (false, true, "KeyPath - bad index should throw");
+        } catch (NumberFormatException exception) {
+            AppTest.report (true, true, "KeyPath - bad index throws the same as a string path");
+        }
+
+        bagObject.remove (keyPath);
+        AppTest.report (bagObject.has ("com/brettonw/bag/name"), false, "KeyPath - remove");
+    }
 }
@@ -345,4 +345,118 @@ public class SerializerTest {
         TestClassC xxx = new TestClassC ();
         AppTest.report (c.getD (), xxx.getD (), "Simple deserialization with missing items");
     }
+
+    @Test
+    public void testRepeatedTypes() {
+        // many objects of the same few types, serialized from several threads at once, should all
+        // come out the same as serializing them one at a time
+        TestClassA[] testClasses = new TestClassA[200];
+        for (int i = 0; i < testClasses.length; ++i) {
+            testClasses[i] = new TestClassA (i, (i % 2) == 0, i * 0.5, "abc" + i, TestEnumXYZ.values ()[i % 3]);
+        }
+        String expect = Serializer.toBagObject (testClasses).toString ();
+
+        String[] results = new String[4];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; ++i) {
+            final int index = i;
+            threads[i] = new Thread (() -> {
+                TestClassA[] recon = Serializer.fromBagObject (BagObjectFrom.string (expect));
+                results[index] = Serializer.toBagObject (recon).toString ();
+            });
+            threads[i].start ();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join ();
+            } catch (InterruptedException exception) {
+                log.error (exception);
+            }
+        }
+        for (String result : results) {
+            AppTest.report (result, expect, "Serializer - repeated types round trip");
+        }
+    }
+
+    private static class FinalFields {
+        private final int x;
+        private final String name;
+        private final int[] values;
+
+        private FinalFields (int x, String name, int[] values) {
+            this.x = x; this.name = name; this.values = values;
+        }
+    }
+
+    @Test
+    public void testFinalFields() {
+        // private final fields in a private class with no default constructor
+        FinalFields finalFields = new FinalFields (7, "seven", new int[] { 1, 2, 3 });
+        BagObject bagObject = Serializer.toBagObject (finalFields);
+        FinalFields recon = Serializer.fromBagObject (bagObject);
+        AppTest.report (recon.x, 7, "Serializer - final int field");
+        AppTest.report (recon.name, "seven", "Serializer - final String field");
+        assertArrayEquals (recon.values, finalFields.values);
+        AppTest.report (Serializer.toBagObject (recon).toString (), bagObject.toString (), "Serializer - final fields round trip");
+    }
+
+    @Test
+    public void testFlatArrays() {
+        // arrays of primitive types are stored as a flat array of values
+        int testArray[] = { 3, 1, 4, 1, 5 };
+        BagObject bagObject = Serializer.toBagObject (testArray);
+        AppTest.report (bagObject.getString (Serializer.VERSION_KEY), Serializer.SERIALIZER_VERSION_5, "Serializer - flat arrays are version 5");
+        AppTest.report (bagObject.getBagArray (Serializer.VALUE_KEY).toString (), "[\"3\",\"1\",\"4\",\"1\",\"5\"]", "Serializer - flat array encoding");
+        assertArrayEquals (testArray, Serializer.fromBagObject (bagObject));
+
+        // boxed arrays keep their nulls, and strings are flat too
+        Integer boxedArray[] = { 1, null, 3 };
+        assertArrayEquals (boxedArray, Serializer.fromBagObject (Serializer.toBagObject (boxedArray)));
+        String stringArray[][] = { { "a", "b" }, { null, "d" } };
+        assertArrayEquals (stringArray, Serializer.fromBagObject (Serializer.toBagObject (stringArray)));
+        Character charArray[] = { 'x', null, 'z' };
+        assertArrayEquals (charArray, Serializer.fromBagObject (Serializer.toBagObject (charArray)));
+
+        // empty arrays
+        assertArrayEquals (new double[0], Serializer.fromBagObject (Serializer.toBagObject (new double[0])), 0.0);
+        assertArrayEquals (new String[0], Serializer.fromBagObject (Serializer.toBagObject (new String[0])));
+
+        // arrays of other types still wrap each element with its type
+        Object objectArray[] = { 1, "two", 3.0 };
+        bagObject = Serializer.toBagObject (objectArray);
+        AppTest.report (bagObject.getBagArray (Serializer.VALUE_KEY).getBagObject (0).getString (Serializer.TYPE_KEY), "java.lang.Integer", "Serializer - object array elements are wrapped");
+        assertArrayEquals (objectArray, Serializer.fromBagObject (bagObject));
+    }
+
+    @Test
+    public void testReadVersion4Arrays() {
+        // version 4 wrapped every element of a primitive array with its type
+        BagArray elements = new BagArray ();
+        for (int i = 0; i < 3; ++i) {
+            elements.add (new BagObject ().put (Serializer.TYPE_KEY, "java.lang.Integer").put (Serializer.VALUE_KEY, i * 2));
+        }
+        BagObject bagObject = new BagObject ()
+                .put (Serializer.VERSION_KEY, Serializer.SERIALIZER_VERSION_4)
+                .put (Serializer.TYPE_KEY, "[I")
+                .put (Serializer.VALUE_KEY, elements);
+        assertArrayEquals (new int[] { 0, 2, 4 }, Serializer.fromBagObject (bagObject));
+
+        // and a two dimensional array, wrapped at both levels
+        BagArray rows = new BagArray ();
+        for (int i = 0; i < 2; ++i) {
+            rows.add (new BagObject ().put (Serializer.TYPE_KEY, "[I").put (Serializer.VALUE_KEY, BagArrayFrom.string (elements.toString ())));
+        }
+        bagObject = new BagObject ()
+                .put (Serializer.VERSION_KEY, Serializer.SERIALIZER_VERSION_4)
+                .put (Serializer.TYPE_KEY, "[[I")
+                .put (Serializer.VALUE_KEY, rows);
+        assertArrayEquals (new int[][] { { 0, 2, 4 }, { 0, 2, 4 } }, Serializer.fromBagObject (bagObject));
+
+        // a leading null doesn't hide the wrapping
+        bagObject = new BagObject ()
+                .put (Serializer.VERSION_KEY, Serializer.SERIALIZER_VERSION_4)
+                .put (Serializer.TYPE_KEY, "[Ljava.lang.Integer;")
+                .put (Serializer.VALUE_KEY, new BagArray ().add (null).add (new BagObject ().put (Serializer.TYPE_KEY, "java.lang.Integer").put (Serializer.VALUE_KEY, "3")));
+        assertArrayEquals (new Integer[] { null, 3 }, Serializer.fromBagObject (bagObject));
+    }
 }
@@ -0,0 +1,44 @@
+package com.brettonw.bag;
+
+import com.brettonw.AppTest;
+import com.brettonw.bag.formats.FormatReader;
+import com.brettonw.bag.formats.MimeType;
+import org.junit.Test;
+
+import java.io.File;
+
+public class SourceAdapterMappedTest {
+    @Test
+    public void testSourceAdapterMapped () {
+        try {
+            File file = new File ("data/bagObject.json");
+            SourceAdapterMapped sourceAdapter = new SourceAdapterMapped (file);
+            AppTest.report (sourceAdapter.getMimeType (), MimeType.JSON, "test mime type response");
+            AppTest.report (sourceAdapter.getByteBuffer ().remaining (), (int) file.length (), "test for mapped buffer");
+            AppTest.report (sourceAdapter.getStringData ().length () > 0, true, "test for valid string data");
+            AppTest.report (sourceAdapter.getByteBuffer ().position (), 0, "buffer views are independent");
+
+            BagObject expect;
+            try (SourceAdapterStream streamAdapter = new SourceAdapterStream (file)) {
+                expect = FormatReader.readBagObject (streamAdapter);
+            }
+            AppTest.report (FormatReader.readBagObject (sourceAdapter), expect, "read in place from the mapped buffer");
+            AppTest.report (FormatReader.readBagObject (sourceAdapter), expect, "mapped source can be read more than once");
+            AppTest.report (BagObjectFrom.sourceAdapter (new SourceAdapterMapped (new File ("data/title.properties"), MimeType.PROP)) != null, true, "read via string fallback");
+        } catch (Exception exception) {
+            AppTest.report (true, false, "Any exception is a failure");
+        }
+    }
+
+    @Test
+    public void testLargeFile () {
+        File file = new File ("data/JohnF.json");
+        AppTest.report (SourceAdapterMapped.shouldMap (file), true, "large files are mapped");
+        AppTest.report (SourceAdapterMapped.shouldMap (new File ("data/bagObject.json")), false, "small files are streamed");
+        try (SourceAdapterStream streamAdapter = new SourceAdapterStream (file)) {
+            AppTest.report (BagObjectFrom.file (file), FormatReader.readBagObject (streamAdapter), "mapped file matches streamed file");
+        } catch (Exception exception) {
+            AppTest.report (true, false, "Any exception is a failure");
+        }
+    }
+}
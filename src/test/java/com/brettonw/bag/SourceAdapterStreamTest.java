@@ -0,0 +1,33 @@
+package com.brettonw.bag;
+
+import com.brettonw.AppTest;
+import com.brettonw.bag.formats.MimeType;
+import org.junit.Test;
+
+import java.io.File;
+
+public class SourceAdapterStreamTest {
+    @Test
+    public void testSourceAdapterStream () {
+        try (SourceAdapterStream sourceAdapter = new SourceAdapterStream (new File ("data/bagObject.json"))) {
+            AppTest.report (sourceAdapter.getMimeType (), MimeType.JSON, "test mime type response");
+            AppTest.report (sourceAdapter.getChannel () != null, true, "test for valid channel");
+        } catch (Exception exception) {
+            AppTest.report (true, false, "Any exception is a failure");
+        }
+
+        try (SourceAdapterStream sourceAdapter = new SourceAdapterStream (getClass ().getResourceAsStream ("/bagObject.json"), MimeType.JSON)) {
+            AppTest.report (sourceAdapter.getStringData () != null, true, "test for valid string data");
+            AppTest.report (sourceAdapter.getChannel (), null, "channel is consumed by reading the string");
+        } catch (Exception exception) {
+            AppTest.report (true, false, "Any exception is a failure");
+        }
+
+        // formats without a channel reader fall back to the string data
+        try (SourceAdapterStream sourceAdapter = new SourceAdapterStream (new File ("data/title.properties"), MimeType.PROP)) {
+            AppTest.report (BagObjectFrom.sourceAdapter (sourceAdapter) != null, true, "read via string fallback");
+        } catch (Exception exception) {
+            AppTest.report (true, false, "Any exception is a failure");
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.brettonw.bag.formats;
+
+import com.brettonw.AppTest;
+import com.brettonw.bag.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+public class FormatReaderBinaryTest {
+    static {
+        new FormatReaderBinary ();
+        new FormatWriterBinary ();
+    }
+
+    private static byte[] writeBytes (Bag bag) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream ();
+        bag.write (outputStream, MimeType.BAG);
+        return outputStream.toByteArray ();
+    }
+
+    @Test
+    public void testRoundTrip () {
+        BagObject bagObject = new BagObject ()
+                .put ("x", "y")
+                .put ("abc", 123)
+                .put ("neg", -42)
+                .put ("padded", "007")
+                .put ("big", "12345678901234567890")
+                .put ("text", "caf\u00e9 \u65e5\u672c\u8a9e \ud83d\ude00")
+                .put ("mno", new BagArray ()
+                        .add (null)
+                        .add (1.5)
+                        .add (true)
+                        .add (new BagObject ()
+                                .put ("x", "y")
+                        )
+                );
+        String output = bagObject.toString (MimeType.BAG);
+        BagObject recon = BagObjectFrom.string (output, MimeType.BAG);
+        AppTest.report (recon, bagObject, "binary string round trip");
+        AppTest.report (recon.getString ("padded"), "007", "non-canonical numbers stay strings");
+        AppTest.report (recon.getString ("big"), "12345678901234567890", "out of range numbers stay strings");
+        AppTest.report (recon.getBagArray ("mno").getObject (0), null, "null array entries survive");
+
+        BagArray bagArray = new BagArray ().add ("a").add (bagObject).add ("a");
+        AppTest.report (BagArrayFrom.string (bagArray.toString (MimeType.BAG), MimeType.BAG), bagArray, "binary array round trip");
+    }
+
+    @Test
+    public void testFiles () {
+        String[] names = { "data/bagObject.json", "data/JohnF.json", "data/UCS_Satellite_Database_2-1-14.json" };
+        for (String name : names) {
+            Bag bag = name.startsWith ("data/UCS") ? BagArrayFrom.file (new File (name)) : BagObjectFrom.file (new File (name));
+            byte[] bytes = writeBytes (bag);
+            AppTest.report (bytes.length < bag.toString (MimeType.JSON).length (), true, "binary is smaller than JSON (" + name + ")");
+
+            Bag recon = (bag instanceof BagArray) ?
+                    BagArrayFrom.inputStream (new ByteArrayInputStream (bytes), MimeType.BAG) :
+                    BagObjectFrom.inputStream (new ByteArrayInputStream (bytes), MimeType.BAG);
+            AppTest.report (recon, bag, "binary stream round trip (" + name + ")");
+        }
+    }
+
+    @Test
+    public void testNativeValues () {
+        BagObject bagObject = new BagObject ().setNativeValues (true)
+                .put ("long", 5)
+                .put ("double", 2.5)
+                .put ("bool", false);
+        byte[] bytes = writeBytes (bagObject);
+
+        BagObject recon = new FormatReaderBinary (Channels.newChannel (new ByteArrayInputStream (bytes))).setNativeValues (true).readBagObject ();
+        AppTest.report (recon.getObject ("long"), 5L, "native long");
+        AppTest.report (recon.getObject ("double"), 2.5, "native double");
+        AppTest.report (recon.getObject ("bool"), false, "native boolean");
+
+        recon = new FormatReaderBinary (Channels.newChannel (new ByteArrayInputStream (bytes))).readBagObject ();
+        AppTest.report (recon.getObject ("long"), "5", "string long");
+        AppTest.report (recon.getObject ("bool"), "false", "string boolean");
+    }
+
+    @Test
+    public void testBadInput () {
+        AppTest.report (BagObjectFrom.string ("{ \"a\": 1 }", MimeType.BAG), null, "JSON is not a binary bag");
+        AppTest.report (new FormatReaderBinary ("").readBagObject (), null, "empty input fails");
+
+        byte[] bytes = writeBytes (new BagObject ().put ("a", "bcd").put ("e", new BagArray ().add (1)));
+        for (int length = 0; length < bytes.length; ++length) {
+            byte[] truncated = Arrays.copyOf (bytes, length);
+            AppTest.report (BagObjectFrom.inputStream (new ByteArrayInputStream (truncated), MimeType.BAG), null, "truncated input fails (" + length + ")");
+        }
+        AppTest.report (BagArrayFrom.inputStream (new ByteArrayInputStream (bytes), MimeType.BAG), null, "object is not an array");
+
+        // counts and lengths that claim far more than the input holds
+        byte[] hugeArray = { 'B', 'A', 'G', 1, 10, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07 };
+        byte[] hugeString = { 'B', 'A', 'G', 1, 10, 1, 6, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07, 'a' };
+        for (byte[] input : new byte[][] { hugeArray, hugeString }) {
+            AppTest.report (new FormatReaderBinary (ByteBuffer.wrap (input)).readBagArray (), null, "huge count from a buffer fails");
+            AppTest.report (new FormatReaderBinary (Channels.newChannel (new ByteArrayInputStream (input))).readBagArray (), null, "huge count from a channel fails");
+        }
+
+        // nesting that would overflow the stack
+        int depth = 200000;
+        byte[] deep = new byte[5 + (depth * 2)];
+        System.arraycopy (new byte[] { 'B', 'A', 'G', 1 }, 0, deep, 0, 4);
+        for (int i = 0; i < depth; ++i) {
+            deep[4 + (i * 2)] = 10;
+            deep[5 + (i * 2)] = 1;
+        }
+        AppTest.report (new FormatReaderBinary (ByteBuffer.wrap (deep)).readBagArray (), null, "deep nesting fails");
+
+        // but nesting up to the limit is fine
+        BagArray nested = new BagArray ();
+        for (int i = 1; i < FormatReaderBinary.MAX_DEPTH; ++i) {
+            nested = new BagArray ().add (nested);
+        }
+        AppTest.report (new FormatReaderBinary (ByteBuffer.wrap (writeBytes (nested))).readBagArray (), nested, "nesting to the limit");
+    }
+}
@@ -1,10 +1,104 @@
 package com.brettonw.bag.formats;
 
+import com.brettonw.AppTest;
+import com.brettonw.bag.*;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
 public class FormatReaderJsonTest {
+    private static BagObject readChannel (String input, int bufferSize) {
+        ByteArrayInputStream inputStream = new ByteArrayInputStream (input.getBytes (StandardCharsets.UTF_8));
+        FormatReaderJson formatReader = new FormatReaderJson (new TextSourceUtf8 (Channels.newChannel (inputStream), bufferSize));
+        return formatReader.readBagObject ();
+    }
+
     @Test
     public void testFormatReadJsonTest () {
+        String input = "{\r\n \"a\" : \"caf\u00e9\",\u00a0\"b\":[1, 2 ,\"\u65e5\u672c\u8a9e\", \"\ud83d\ude00\"],\n \"c\": {\"d\" : \"with \\\"escape\\\"\"}, \"e\":null, f: bare\u00e9 }";
+        BagObject expect = BagObjectFrom.string (input);
+        AppTest.report (expect.getString ("a"), "caf\u00e9", "string reader handles Latin-1");
+        AppTest.report (expect.getBagArray ("b").getString (3), "\ud83d\ude00", "string reader handles supplementary characters");
+
+        // a tiny buffer forces every token across a refill at some point, and buffers smaller than
+        // a UTF-8 sequence have to grow to hold it
+        for (int bufferSize = 1; bufferSize < 64; ++bufferSize) {
+            AppTest.report (readChannel (input, bufferSize), expect, "channel reader matches string reader (buffer size " + bufferSize + ")");
+        }
+    }
+
+    @Test
+    public void testFormatReadJsonStreamFiles () {
+        String[] names = { "data/bagObject.json", "data/JohnF.json", "data/spark-applications.json" };
+        for (String name : names) {
+            try {
+                File file = new File (name);
+                String string = new String (Files.readAllBytes (file.toPath ()), StandardCharsets.UTF_8);
+                AppTest.report (BagObjectFrom.file (file), BagObjectFrom.string (string), "streamed file matches string (" + name + ")");
+            } catch (Exception exception) {
+                AppTest.report (true, false, "Any exception is a failure");
+            }
+        }
+
+        try {
+            File file = new File ("data/UCS_Satellite_Database_2-1-14.json");
+            String string = new String (Files.readAllBytes (file.toPath ()), StandardCharsets.UTF_8);
+            BagArray bagArray = BagArrayFrom.file (file);
+            AppTest.report (bagArray != null, true, "streamed array file");
+            AppTest.report (bagArray, BagArrayFrom.string (string), "streamed array file matches string");
+        } catch (Exception exception) {
+            AppTest.report (true, false, "Any exception is a failure");
+        }
+    }
+
+    @Test
+    public void testFormatReadJsonStreamErrors () {
+        AppTest.report (BagObjectFrom.file (new File ("data/badFile.json")), null, "streamed bad file fails");
+        AppTest.report (BagObjectFrom.inputStream (new ByteArrayInputStream ("{ \"a\": ".getBytes (StandardCharsets.UTF_8))), null, "truncated stream fails");
+        AppTest.report (BagArrayFrom.inputStream (new ByteArrayInputStream ("[1,2,3]".getBytes (StandardCharsets.UTF_8))).getInteger (2), 3, "streamed array");
+    }
+
+    private static BagArray readArray (String input, boolean parallel, boolean buffer) {
+        FormatReaderJson formatReader = buffer ?
+                new FormatReaderJson (ByteBuffer.wrap (input.getBytes (StandardCharsets.UTF_8))) :
+                new FormatReaderJson (input);
+        return formatReader.setParallel (parallel).readBagArray ();
+    }
+
+    @Test
+    public void testFormatReadJsonParallel () {
+        String[] inputs = {
+                "[1, 2 ,\"caf\u00e9\", bare, null, {\"a\": [\"],[\", \"\\\"}\"]}, [[], {}], \"\\\\\", x\\,y]",
+                "\r\n [ { \"a\" : 1 }, [ \"b\", [ \"c\" ] ] ] trailing",
+                "[]",
+                "[ ]"
+        };
+        for (String input : inputs) {
+            BagArray expect = readArray (input, false, false);
+            AppTest.report (readArray (input, true, false), expect, "parallel string reader matches sequential (" + input + ")");
+            AppTest.report (readArray (input, true, true), expect, "parallel buffer reader matches sequential (" + input + ")");
+        }
+
+        // inputs the splitter isn't sure about fall back to the sequential reader
+        String[] badInputs = { "[1,,2]", "[1, 2", "[a b]", "[\"a\"b]", "{\"a\": 1}", "", "[a:b]", "[1, a:b, 2]", "[{\"a\": 1}: 2]", "[[1], 2 3]" };
+        for (String input : badInputs) {
+            AppTest.report (readArray (input, true, false), readArray (input, false, false), "parallel reader falls back (" + input + ")");
+        }
 
+        try {
+            String string = new String (Files.readAllBytes (new File ("data/UCS_Satellite_Database_2-1-14.json").toPath ()), StandardCharsets.UTF_8);
+            BagArray expect = readArray (string, false, false);
+            AppTest.report (readArray (string, true, false), expect, "parallel string reader matches sequential (UCS)");
+            AppTest.report (readArray (string, true, true), expect, "parallel buffer reader matches sequential (UCS)");
+            AppTest.report (new FormatReaderJson (string).setParallel (true).setNativeValues (true).readBagArray (),
+                    new FormatReaderJson (string).setParallel (false).setNativeValues (true).readBagArray (), "parallel reader with native values");
+        } catch (Exception exception) {
+            AppTest.report (true, false, "Any exception is a failure");
+        }
     }
 }
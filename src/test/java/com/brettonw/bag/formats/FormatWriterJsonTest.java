@@ -1,10 +1,47 @@
 package com.brettonw.bag.formats;
 
+import com.brettonw.AppTest;
+import com.brettonw.bag.BagArray;
+import com.brettonw.bag.BagArrayFrom;
+import com.brettonw.bag.BagObject;
+import com.brettonw.bag.BagObjectFrom;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
 public class FormatWriterJsonTest {
     @Test
     public void testFormatWriterJson () {
+        // strings with nothing to escape are written as is
+        BagObject bagObject = new BagObject ().put ("a", "plain text");
+        AppTest.report (bagObject.toString (), "{\"a\":\"plain text\"}", "plain strings are written as is");
+
+        // quotes, backslashes, and control characters are escaped
+        String raw = "say \"hi\"\\ \n\t\r\b\f\u0001 caf\u00e9";
+        bagObject = new BagObject ().put ("k\"ey", raw);
+        String json = bagObject.toString ();
+        AppTest.report (json, "{\"k\\\"ey\":\"say \\\"hi\\\"\\\\ \\n\\t\\r\\b\\f\\u0001 caf\u00e9\"}", "special characters are escaped");
+
+        // and they round trip, from both readers
+        BagObject recon = BagObjectFrom.string (json);
+        AppTest.report (recon.getString ("k\"ey"), raw, "escaped string round trips");
+        recon = BagObjectFrom.inputStream (new ByteArrayInputStream (json.getBytes (StandardCharsets.UTF_8)), MimeType.JSON);
+        AppTest.report (recon.getString ("k\"ey"), raw, "escaped string round trips through a stream");
 
+        BagArray bagArray = new BagArray ().add (raw).add ("\\");
+        AppTest.report (BagArrayFrom.string (bagArray.toString ()).getString (0), raw, "escaped array string round trips");
+        AppTest.report (BagArrayFrom.string (bagArray.toString ()).getString (1), "\\", "lone backslash round trips");
+    }
+
+    @Test
+    public void testUnescape () {
+        BagArray bagArray = BagArrayFrom.string ("[\"\\u0041\\u00e9\\u20AC\", \"a\\/b\", \"bad \\uZZ escape\", \"bad \\q escape\", \"\\uD83D\\uDE00\", bare\\value]");
+        AppTest.report (bagArray.getString (0), "A\u00e9\u20ac", "unicode escapes are decoded");
+        AppTest.report (bagArray.getString (1), "a/b", "escaped solidus is decoded");
+        AppTest.report (bagArray.getString (2), "bad \\uZZ escape", "malformed unicode escape is kept as written");
+        AppTest.report (bagArray.getString (3), "bad \\q escape", "unknown escape is kept as written");
+        AppTest.report (bagArray.getString (4), "\ud83d\ude00", "surrogate pair escapes are decoded");
+        AppTest.report (bagArray.getString (5), "bare\\value", "bare values are returned as written");
     }
 }
@@ -9,6 +9,10 @@ import com.brettonw.bag.formats.MimeType;
 import com.brettonw.bag.formats.FormatWriterJson;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
 public class FormatWriterTest {
 
     static {
@@ -46,4 +50,39 @@ public class FormatWriterTest {
         AppTest.report (FormatWriter.write (recon, MimeType.JSON), output, "Json output is round-trippable");
         AppTest.report (recon.getString ("def/xyz"), "pdq", "Json output is valid");
     }
+
+    @Test
+    public void testStreaming () {
+        BagObject bagObject = new BagObject ()
+                .put ("x", "y")
+                .put ("abc", 123)
+                .put ("mno", new BagArray ()
+                        .add (null)
+                        .add (1)
+                        .add (new BagObject ().put ("r", "s"))
+                );
+        String expect = bagObject.toString (MimeType.JSON);
+
+        StringBuilder stringBuilder = new StringBuilder ("prefix:");
+        AppTest.report (bagObject.write (stringBuilder, MimeType.JSON), true, "write to an Appendable succeeds");
+        AppTest.report (stringBuilder.toString (), "prefix:" + expect, "write to an Appendable appends the same text as toString");
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream ();
+        AppTest.report (bagObject.write (outputStream, MimeType.JSON), true, "write to an OutputStream succeeds");
+        AppTest.report (new String (outputStream.toByteArray (), StandardCharsets.UTF_8), expect, "write to an OutputStream emits the same text as toString");
+
+        BagArray bagArray = new BagArray ().add ("a").add ("b");
+        outputStream = new ByteArrayOutputStream ();
+        AppTest.report (FormatWriter.write (bagArray, MimeType.PROP, outputStream), true, "write a BagArray to an OutputStream");
+        AppTest.report (new String (outputStream.toByteArray (), StandardCharsets.UTF_8), "a\nb\n", "write a BagArray as text");
+
+        AppTest.report (bagObject.write (new StringBuilder (), "Xxx_format"), false, "write with a bad format fails");
+
+        Appendable broken = new Appendable () {
+            public Appendable append (CharSequence csq) throws IOException { throw new IOException ("broken"); }
+            public Appendable append (CharSequence csq, int start, int end) throws IOException { throw new IOException ("broken"); }
+            public Appendable append (char c) throws IOException { throw new IOException ("broken"); }
+        };
+        AppTest.report (bagObject.write (broken, MimeType.JSON), false, "write to a failing Appendable fails");
+    }
 }
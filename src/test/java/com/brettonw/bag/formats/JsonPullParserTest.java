@@ -0,0 +1,83 @@
+package com.brettonw.bag.formats;
+
+import com.brettonw.AppTest;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.channels.Channels;
+
+import static com.brettonw.bag.formats.JsonEvent.*;
+
+public class JsonPullParserTest {
+    @Test
+    public void testJsonPullParser () {
+        JsonPullParser parser = new JsonPullParser ("{ \"a\": [1, null, \"NULL\", {}], b : \"x y\", \"c\" :null }");
+        JsonEvent[] expect = {
+                START_OBJECT, KEY, START_ARRAY, VALUE, NULL, NULL, START_OBJECT, END_OBJECT, END_ARRAY,
+                KEY, VALUE, KEY, NULL, END_OBJECT, END, END
+        };
+        for (int i = 0; i < expect.length; ++i) {
+            AppTest.report (parser.next (), expect[i], "event " + i);
+        }
+
+        parser = new JsonPullParser ("[ a, \"b\\\"c\" ]");
+        AppTest.report (parser.next (), START_ARRAY, "start array");
+        AppTest.report (parser.getDepth (), 1, "depth inside array");
+        AppTest.report (parser.next (), VALUE, "bare value");
+        AppTest.report (parser.getString (), "a", "bare value text");
+        AppTest.report (parser.next (), VALUE, "quoted value");
+        AppTest.report (parser.getString (), "b\"c", "quoted value has its escapes decoded");
+        AppTest.report (parser.next (), END_ARRAY, "end array");
+        AppTest.report (parser.getDepth (), 0, "depth after array");
+    }
+
+    @Test
+    public void testJsonPullParserSkip () {
+        JsonPullParser parser = new JsonPullParser ("{ \"skip\": { \"a\": [1, [2, 3]], \"b\": {} }, \"keep\": 4 }");
+        AppTest.report (parser.next (), START_OBJECT, "start");
+        AppTest.report (parser.next (), KEY, "skip key");
+        AppTest.report (parser.next (), START_OBJECT, "start of skipped value");
+        AppTest.report (parser.skip (), END_OBJECT, "skipped value");
+        AppTest.report (parser.next (), KEY, "keep key");
+        AppTest.report (parser.getString (), "keep", "keep key text");
+        AppTest.report (parser.next (), VALUE, "keep value");
+        AppTest.report (parser.getString (), "4", "keep value text");
+    }
+
+    @Test
+    public void testJsonPullParserErrors () {
+        JsonEvent[][] expects = {
+                { START_ARRAY, VALUE, ERROR, ERROR },
+                { START_OBJECT, KEY, ERROR },
+                { START_OBJECT, KEY, VALUE, ERROR },
+                { END }
+        };
+        String[] inputs = { "[1 2]", "{ a 1 }", "{ a : 1, }", "" };
+        for (int i = 0; i < inputs.length; ++i) {
+            JsonPullParser parser = new JsonPullParser (inputs[i]);
+            for (int j = 0; j < expects[i].length; ++j) {
+                AppTest.report (parser.next (), expects[i][j], "error input " + i + ", event " + j);
+            }
+        }
+    }
+
+    @Test
+    public void testJsonPullParserCount () {
+        // count the records in a large file without building any of them
+        try (FileInputStream inputStream = new FileInputStream (new File ("data/UCS_Satellite_Database_2-1-14.json"))) {
+            JsonPullParser parser = new JsonPullParser (Channels.newChannel (inputStream));
+            int count = 0;
+            if (parser.next () == START_ARRAY) {
+                while (parser.next () == START_OBJECT) {
+                    parser.skip ();
+                    ++count;
+                }
+            }
+            AppTest.report (parser.getEvent (), END_ARRAY, "counted to the end of the array");
+            AppTest.report (count, 1167, "record count");
+        } catch (Exception exception) {
+            AppTest.report (true, false, "Any exception is a failure");
+        }
+    }
+}